@@ -1,8 +1,8 @@
 
 import java.io.Serializable;
-import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.UUID;
 
 /**
  * Created 10/24/2016
@@ -14,38 +14,93 @@ import java.util.HashMap;
  * by the developer. This class allows for easy referencing of many arrayMeta
  * fields, and gives a friendly way to access remote machines.
  */
-public class Array implements InifArray, Serializable {
-    private ArrayList<Node> nodeList = new ArrayList(); //List of Nodes in Array
-    private HashMap<String, Node> shardMap = new HashMap<>(); //Tying Nodes to Shards (Roles)
-    private Node coreNode = null;
+public class Array implements InifArray, Serializable, Cloneable {
+    private ArrayList<NodeDescriptor> nodeList = new ArrayList<>(); //List of Nodes in Array
+    private String[] roles = new String[0]; //Role table; NodeDescriptor role IDs index into it
+    private ArrayList<ArrayList<NodeDescriptor>> replicas = new ArrayList<>(); //Every replica of each role, by role ID; first is primary
+    private transient HashMap<String, ShardRouter> routers; //Built on demand, per copy of Array
     private String queryIP;
     private int queryPort;
+    private final UUID arrayID = UUID.randomUUID(); //Identifies Array across serialized copies
+    private UUID stateID = arrayID; //Checkpoint lineage; kept by the Array that replaces this one
+    private long epoch = 1; //Arrays formed so far in lineage; older epochs may not write checkpoints
+    private TraceContext trace; //Trace of formation, null when unsampled
 
-    public void addNode(Node node) throws RemoteException { //Add Node to Array
+    public void setRoles(String[] roles) { //Role names, indexed by role ID
+        this.roles = roles;
+        replicas = new ArrayList<>();
+        for (int i = 0; i < roles.length; i++) replicas.add(new ArrayList<>());
+    }
+
+    public String[] getRoles() {
+        return roles;
+    }
+
+    public int roleID(String role) { //NO_ROLE if role is not in this Array
+        for (int i = 0; i < roles.length; i++) if (roles[i].equals(role)) return i;
+        return NodeDescriptor.NO_ROLE;
+    }
+
+    public String getRole(NodeDescriptor n) { //Role name of a member
+        int id = n.getRoleID();
+        return id >= 0 && id < roles.length ? roles[id] : null;
+    }
+
+    public synchronized void addNode(NodeDescriptor node) { //Add Node to Array under its role; only before it is published
         nodeList.add(node);
+        replicas.get(node.getRoleID()).add(node);
+        routers = null; //Membership changed; rebuild routing
     }
 
-    public void removeNode(Node n) { //Remove Node from Array
-        nodeList.remove(n);
+    public synchronized NodeDescriptor removeReplica(UUID nodeID) { //Remove Node from Array and its role; next replica becomes primary. Only on a copy()
+        for (NodeDescriptor n : nodeList) {
+            if (!n.is(nodeID)) continue;
+            replicas.get(n.getRoleID()).remove(n);
+            nodeList.remove(n);
+            routers = null;
+            return n;
+        }
+        return null;
     }
 
-    public void setCoreNode(Node n) { //Set Core Node
-        coreNode = n;
+    public NodeDescriptor getNode(UUID nodeID) { //Member with ID, or null
+        for (NodeDescriptor n : nodeList) if (n.is(nodeID)) return n;
+        return null;
     }
 
-    public Node getCoreNode() { //Retrieve Core Node arrayMeta
-        return coreNode;
+    public NodeDescriptor getPrimary(String role) { //First replica of role, or null
+        ArrayList<NodeDescriptor> r = getReplicas(role);
+        return r.isEmpty() ? null : r.get(0);
     }
 
-    public void addShardMap(Node node) throws RemoteException { //Add link between Node and Shard in Array
-        shardMap.put(node.getShard().getRole(), node);
+    public NodeDescriptor getCore() {
+        return getPrimary("Core");
     }
 
-    public HashMap<String, Node> getShardMap() throws RemoteException { //Retrieve ShardMap
-        return shardMap;
+    public ArrayList<NodeDescriptor> getReplicas(String role) { //Retrieve all replicas of a role
+        int id = roleID(role);
+        return id < 0 ? new ArrayList<>() : replicas.get(id);
     }
 
-    public ArrayList<Node> getNodeList() { //Retrieve NodeList
+    public NodeDescriptor routeByKey(String role, Object key) { //Replica of role owning key (consistent hash)
+        return getRouter(role).route(key);
+    }
+
+    public NodeDescriptor routeRoundRobin(String role) { //Next replica of role in turn
+        return getRouter(role).next();
+    }
+
+    private synchronized ShardRouter getRouter(String role) {
+        if (routers == null) routers = new HashMap<>();
+        ShardRouter router = routers.get(role);
+        if (router == null) {
+            router = new ShardRouter(getReplicas(role));
+            routers.put(role, router);
+        }
+        return router;
+    }
+
+    public ArrayList<NodeDescriptor> getNodeList() { //Retrieve NodeList
         return nodeList;
     }
 
@@ -64,4 +119,63 @@ public class Array implements InifArray, Serializable {
     public int getQueryPort() { //Retrieve port of Query server
         return queryPort;
     }
+
+    public UUID getArrayID() { //Retrieve ID of Array
+        return arrayID;
+    }
+
+    public void setState(UUID stateID, long epoch) { //Continue the checkpoints of a dissolved Array
+        this.stateID = stateID;
+        this.epoch = epoch;
+    }
+
+    public UUID getStateID() {
+        return stateID;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public void setTrace(TraceContext trace) { //Trace this Array travels under
+        this.trace = trace;
+    }
+
+    public TraceContext getTrace() {
+        return trace;
+    }
+
+    public Array forClient(TraceContext trace) { //Shallow copy handed to one Client, under that Client's trace
+        try {
+            Array copy = (Array) super.clone();
+            copy.routers = null;
+            copy.trace = trace;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Array copy() { //Same Array with its own member lists; a resize changes the copy and publishes it in place of this one
+        try {
+            Array copy = (Array) super.clone();
+            copy.nodeList = new ArrayList<>(nodeList);
+            copy.replicas = new ArrayList<>();
+            for (ArrayList<NodeDescriptor> r : replicas) copy.replicas.add(new ArrayList<>(r));
+            copy.routers = null;
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) { //Arrays are equal if their IDs match, even after RMI copies them
+        return o instanceof Array && ((Array) o).arrayID.equals(arrayID);
+    }
+
+    @Override
+    public int hashCode() {
+        return arrayID.hashCode();
+    }
 }
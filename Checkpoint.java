@@ -0,0 +1,167 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * Checkpoint is a Shard's state in a memory-mapped file,
+ * split into fixed pages. The writer hashes pages after
+ * each save and ships only those that changed; the store
+ * stamps each page with the version it last changed in,
+ * so a reader that already holds version v is sent only
+ * pages newer than v. Not thread safe; one owner each.
+ * A closed Checkpoint must not be used again.
+ */
+public class Checkpoint {
+    public static final int PAGE = Integer.getInteger("mocha.checkpoint.page", 4096); //Bytes per page
+    private static final File DIR = new File(System.getProperty("mocha.checkpoint.dir", System.getProperty("java.io.tmpdir")));
+    private final File file;
+    private MappedByteBuffer buf; //Null once closed
+    private final int size, pageCount;
+    private final long[] pageVersion; //Store side: version each page last changed in
+    private final long[] pageHash; //Writer side: hash of each page as last shipped
+    private long version; //Store version this copy matches; 0 if unknown
+
+    public Checkpoint(String name, int size) throws IOException {
+        this.size = size;
+        this.pageCount = (size + PAGE - 1) / PAGE;
+        this.pageVersion = new long[pageCount];
+        this.pageHash = new long[pageCount];
+        file = new File(DIR, name + ".ckpt");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0); //Contents are trusted only through versions held in memory
+            raf.setLength(size);
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        file.deleteOnExit();
+        rehash();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * close
+     * Deletes the file and drops this copy's mapping. A Shard
+     * may still hold a view from state(), so the mapping is
+     * not unmapped by force; it goes once no view is left.
+     */
+    public void close() {
+        if (buf == null) return;
+        buf = null;
+        if (!file.delete()) EventLog.warn(EventLog.Subsystem.NODE, "Unable to delete checkpoint", file.getName());
+    }
+
+    public boolean isClosed() {
+        return buf == null;
+    }
+
+    public ByteBuffer state() { //Whole region, positioned at 0; shares content with the file
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        return b;
+    }
+
+    public void rehash() { //Treat current content as shipped
+        for (int p = 0; p < pageCount; p++) pageHash[p] = hash(p);
+    }
+
+    /**
+     * diff
+     * Writer side: pages whose content changed since last
+     * commit. Hashes are held in the delta until commit.
+     */
+    public CheckpointDelta diff(UUID stateID, String role, long epoch) {
+        int[] pages = new int[pageCount];
+        long[] hashes = new long[pageCount];
+        int n = 0, bytes = 0;
+        for (int p = 0; p < pageCount; p++) {
+            long h = hash(p);
+            if (h == pageHash[p]) continue;
+            pages[n] = p;
+            hashes[n++] = h;
+            bytes += pageLength(p);
+        }
+        byte[] data = new byte[bytes];
+        ByteBuffer b = state();
+        for (int i = 0, off = 0; i < n; i++) {
+            b.position(pages[i] * PAGE);
+            b.get(data, off, pageLength(pages[i]));
+            off += pageLength(pages[i]);
+        }
+        CheckpointDelta d = new CheckpointDelta(stateID, role, epoch, size, 0, Arrays.copyOf(pages, n), data);
+        d.hashes = Arrays.copyOf(hashes, n);
+        return d;
+    }
+
+    public void commit(CheckpointDelta d, long version) { //Writer side: delta accepted as store version
+        for (int i = 0; i < d.getPageCount(); i++) pageHash[d.getPage(i)] = d.hashes[i];
+        this.version = version;
+    }
+
+    public long apply(CheckpointDelta d) { //Store side stamps a new version; reader side adopts the store's
+        long v = d.getVersion() > 0 ? d.getVersion() : version + 1;
+        ByteBuffer b = state();
+        byte[] data = d.getData();
+        for (int i = 0, off = 0; i < d.getPageCount(); i++) {
+            int p = d.getPage(i);
+            b.position(p * PAGE);
+            b.put(data, off, pageLength(p));
+            off += pageLength(p);
+            pageVersion[p] = v;
+        }
+        version = v;
+        return v;
+    }
+
+    public CheckpointDelta since(UUID stateID, String role, long epoch, long known) { //Store side: pages newer than known; all if known is 0
+        int n = 0, bytes = 0;
+        for (int p = 0; p < pageCount; p++) {
+            if (known == 0 || pageVersion[p] > known) {
+                n++;
+                bytes += pageLength(p);
+            }
+        }
+        int[] pages = new int[n];
+        byte[] data = new byte[bytes];
+        ByteBuffer b = state();
+        for (int p = 0, i = 0, off = 0; p < pageCount; p++) {
+            if (known != 0 && pageVersion[p] <= known) continue;
+            pages[i++] = p;
+            b.position(p * PAGE);
+            b.get(data, off, pageLength(p));
+            off += pageLength(p);
+        }
+        return new CheckpointDelta(stateID, role, epoch, size, version, pages, data);
+    }
+
+    private int pageLength(int p) {
+        return Math.min(PAGE, size - p * PAGE);
+    }
+
+    private long hash(int p) { //64-bit mix of page content
+        long h = 0xcbf29ce484222325L;
+        int end = p * PAGE + pageLength(p), i = p * PAGE;
+        for (; i + 8 <= end; i += 8) h = (h ^ buf.getLong(i)) * 0x100000001b3L;
+        for (; i < end; i++) h = (h ^ buf.get(i)) * 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,66 @@
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * CheckpointDelta carries the pages of a Shard checkpoint
+ * that changed: from the role's primary to Query after
+ * each save, and from Query to the Node taking over the
+ * role. Pages travel back to back in one byte array.
+ */
+public class CheckpointDelta implements Serializable {
+    private final UUID stateID; //Lineage of Arrays sharing this state
+    private final String role;
+    private final long epoch; //Array epoch the pages were written in
+    private final int size; //Full checkpoint size in bytes
+    private final long version; //Store version pages bring reader up to; 0 from a writer
+    private final int[] pages; //Page numbers, ascending
+    private final byte[] data; //Page contents, Checkpoint.PAGE bytes each; last page may be short
+    transient long[] hashes; //Writer side: content hash of each page, committed once Query accepts
+
+    public CheckpointDelta(UUID stateID, String role, long epoch, int size, long version, int[] pages, byte[] data) {
+        this.stateID = stateID;
+        this.role = role;
+        this.epoch = epoch;
+        this.size = size;
+        this.version = version;
+        this.pages = pages;
+        this.data = data;
+    }
+
+    public UUID getStateID() {
+        return stateID;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    public int getPage(int i) {
+        return pages[i];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+}
@@ -18,6 +18,9 @@ public class Client implements Serializable {
     private Array server; // Array assigned by server
     private String clientIP, coreIP; //OSI Layer 3 Addresses for source and array
     private int clientPort, corePort;//Port configurations for source and array
+    private TraceContext trace; //Trace of connection, null when unsampled
+    private int callbackPort = -1; //Port of Client's exported InifClient; -1 if Client does not take pushes
+    private String[] topics; //Broadcast topics wanted; null for all
 
     public Client(String clientIP, int clientPort) {
         this.clientIP = clientIP;
@@ -26,8 +29,9 @@ public class Client implements Serializable {
 
     public void setServer(Array server) { // Sets server in Client, and gathers Core arrayMeta from array.
         this.server = server;
+        if (trace == null) trace = server.getTrace(); //Query sampled this Client's assignment
         try {
-            setCore(server.getShardMap().get("Core").getNodeIP(), server.getShardMap().get("Core").getNodePort());
+            setCore(server.getCore().getNodeIP(), server.getCore().getNodePort());
             //Get core arrayMeta in order to contact and register with Array
         } catch (Exception e) { //Data not set or not retrievable
             System.out.println("Unable to set Core in Client");
@@ -58,4 +62,37 @@ public class Client implements Serializable {
     public Array getServer(){
         return server;
     }
+
+    public void setCallback(int port, String... topics) { //Ask Core to push updates to InifClient "Client" exported on port
+        callbackPort = port;
+        this.topics = topics;
+    }
+
+    public int getCallbackPort() {
+        return callbackPort;
+    }
+
+    public String[] getTopics() {
+        return topics;
+    }
+
+    public void setTrace(TraceContext trace) { //Trace this Client travels under
+        this.trace = trace;
+    }
+
+    public TraceContext getTrace() {
+        return trace;
+    }
+
+    @Override
+    public boolean equals(Object o) { //Clients are identified by their source address
+        if (!(o instanceof Client)) return false;
+        Client c = (Client) o;
+        return clientPort == c.clientPort && clientIP.equals(c.clientIP);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * clientIP.hashCode() + clientPort;
+    }
 }
@@ -1,20 +1,44 @@
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.OperatingSystemMXBean;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
-import java.util.ArrayList;
-
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.UUID;
 
 /**
  * Created by JD Isenhart on 11/17/2016.
  * Testing RMI creation in Java 8
  */
 public class CoreShard extends Shard implements InifCore {
-    private static Timer timer;
-    private List<Client> playerList = new ArrayList<>();
+    private static final int LOAD_REPORT_RATE = 2000; //ms between load reports to QueryClient
+    private static final int LATENCY_SAMPLES = 1024; //Size of latency sample ring
+    private static final int DIGEST_RATE = Integer.getInteger("mocha.digest.rate", 5000); //ms between health digests to QueryServer
+    private static final int HEARTBEAT_SAMPLES = 256; //Size of ping round trip ring, hub mode
+    private transient Timer timer; //Per Core, so several Cores can share a JVM
+    private static final long REDIRECT_TTL = 60000; //ms a redirect is kept for a migrated Client
+    private static final int SESSION_CAPACITY = Integer.getInteger("mocha.sessions.capacity", 1024); //Initial Clients per table; tables grow
+    private transient SessionTable sessions; //Registered Clients, off heap
+    private transient HashMap<Long, byte[]> states; //Session state of Clients that set one, by session key
+    private transient SessionTable redirects; //Clients migrated away; aux endpoint is the new Core
+    private transient long arrayHi, arrayLo; //ID of Array sessions belong to
+    private transient PushChannel push; //Updates to Clients that registered a callback
+    private transient long[] latencies; //Ring of recent request latencies (ns)
+    private transient int latencyCount, requestCount;
+    private transient long registrations; //Clients registered since Core started; lets Query tell which assignments a report covers
+    private transient long lastReport;
+    private transient int port; //Registry port Core is bound in
+    private transient volatile Array array; //Current membership, replaced on resize
+    private transient Membership membership; //Gossip view of Array; replaces ping checks when set
+    private transient volatile boolean dissolved;
+    private transient long[] heartbeats; //Ping round trips (us), hub mode
+    private transient int heartbeatCount;
+    private transient long digestEpoch; //Sequence of health digests sent
+    private transient HeartbeatPacer pacer; //Heartbeat timing, hub mode
+    private transient HashMap<UUID, Integer> misses; //Heartbeat timeouts in a row, by member; hub mode
 
     public CoreShard() {
         super("Core");
@@ -23,61 +47,204 @@ public class CoreShard extends Shard implements InifCore {
     @Override
     public void startShard(Array data, Node n) {
         try {
-            Registry registry = LocateRegistry.getRegistry(n.getNodePort());
-            registry.bind("Core", UnicastRemoteObject.exportObject(new CoreShard(), n.getNodePort()));
+            port = n.getNodePort();
+            synchronized (this) {
+                sessions = new SessionTable("core-" + port, SESSION_CAPACITY);
+                redirects = new SessionTable("redirect-" + port, 16);
+                states = new HashMap<>();
+                arrayHi = data.getArrayID().getMostSignificantBits();
+                arrayLo = data.getArrayID().getLeastSignificantBits();
+            }
+            push = new PushChannel(port);
+            push.start();
+            Transports.get().export("Core", this, port); //Export this instance so load reports see its sessions
             System.out.println("Client Server (InifCore) started! Port: " + n.getNodePort());
         } catch (Exception e) {
             e.printStackTrace();
         }
+        membership = n.getMembership();
         startPing(data);
     }
 
+    @Override
+    public double getDemand() { //Core carries every Client session and all health checks
+        return 10.0;
+    }
+
+    @Override
+    public final int getReplicas() { //Clients register with a single Core per Array
+        return 1;
+    }
+
+    @Override
+    public void stopShard() { //Stop health checks and withdraw Core from registry
+        if (timer != null) timer.cancel();
+        if (push != null) push.stop();
+        try {
+            Transports.get().unexport("Core", this, port);
+        } catch (Exception e) {
+            System.err.println("Core already withdrawn!");
+        }
+    }
+
     private void startPing(Array data) {
+        array = data;
         timer = new Timer();
-        System.out.println("Server Health Check Started!");
-        timer.scheduleAtFixedRate(timerTask(data), 3000, 1000); //Task, delay, update speed
+        dissolved = false;
+        if (membership != null) { //Members probe each other; Core only acts on their verdict
+            membership.addListener(this::memberChanged);
+            System.out.println("Server Health Check Started! (Gossip)");
+        } else {
+            System.out.println("Server Health Check Started!");
+            pacer = new HeartbeatPacer(1000);
+            misses = new HashMap<>();
+            pacer.schedule(timer, 3000, this::pingMembers); //Interval adapts from 1000ms
+        }
+        startLoadReport(data);
+        startDigest();
     }
 
-    private static TimerTask timerTask(Array data) {
-        return new TimerTask() {
-            boolean dissolved = false;
+    private void startDigest() { //Periodically push Array health to QueryServer
+        synchronized (this) {
+            heartbeats = new long[HEARTBEAT_SAMPLES];
+        }
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                if (FaultHooks.isHalted(port)) return;
+                Array data = array;
+                try {
+                    InifQueryServer stub = Transports.get().lookup(data.getQueryIP(), data.getQueryPort(), "QueryServer", InifQueryServer.class);
+                    stub.reportHealth(takeDigest(data));
+                } catch (Exception e) {
+                    EventLog.warn(EventLog.Subsystem.CORE, "Unable to report health to QueryServer", data.getQueryIP());
+                }
+            }
+        }, DIGEST_RATE, DIGEST_RATE);
+    }
 
+    private HealthDigest takeDigest(Array data) throws RemoteException { //Member states from gossip view, or membership list in hub mode
+        Map<UUID, Membership.State> view;
+        long[] rtt;
+        if (membership != null) {
+            view = membership.getView();
+            rtt = membership.drainRtts();
+        } else {
+            view = new HashMap<>();
+            for (NodeDescriptor n : data.getNodeList()) view.put(n.getID(), Membership.State.ALIVE);
+            synchronized (this) {
+                rtt = Arrays.copyOf(heartbeats, Math.min(heartbeatCount, HEARTBEAT_SAMPLES));
+                heartbeatCount = 0;
+            }
+        }
+        synchronized (this) {
+            return new HealthDigest(data.getArrayID(), ++digestEpoch, view, rtt, sessions.size());
+        }
+    }
+
+    private synchronized void recordHeartbeat(long micros) {
+        if (heartbeats != null) heartbeats[heartbeatCount++ % HEARTBEAT_SAMPLES] = micros;
+    }
+
+    private void startLoadReport(Array data) { //Periodically push live load to QueryClient
+        synchronized (this) {
+            latencies = new long[LATENCY_SAMPLES];
+            lastReport = System.nanoTime();
+        }
+        timer.scheduleAtFixedRate(new TimerTask() {
             @Override
             public void run() {
-                data.getNodeList().stream().filter(n -> !n.getShard().getRole().equals("Core") && !dissolved).forEach(n -> {
-                    try {
-                        Registry registry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                        InifNodeServer stub = (InifNodeServer) registry.lookup("AdminServer"); //Name of RMI Server in registry
-//                        stub.ping();
-                    } catch (Exception e) {
-                        try {
-                            System.err.println("Node IP: " + n.getNodeIP());
-                            System.err.println("Node timed out!");
-                            System.err.println("Node Role: " + n.getShard().getRole());
-                            System.err.println("Node Port: " + n.getNodePort());
-                            System.err.println("Dissolving Array");
-                            timer.cancel();
-                            dissolveArray(data);
-                            dissolved = true;
-                        } catch (RemoteException e1) {
-                            e1.printStackTrace();
-                        }
-                    }
-                });
-//                System.out.println("System Integrity Good!");
+                if (FaultHooks.isHalted(port)) return;
+                try {
+                    InifQueryClient stub = Transports.get().lookup(data.getQueryIP(), data.getQueryPort(), "QueryClient", InifQueryClient.class);
+                    stub.reportLoad(takeLoadReport(data));
+                } catch (Exception e) {
+                    EventLog.warn(EventLog.Subsystem.CORE, "Unable to report load to QueryClient", data.getQueryIP());
+                }
+            }
+        }, LOAD_REPORT_RATE, LOAD_REPORT_RATE);
+    }
+
+    private synchronized LoadReport takeLoadReport(Array data) { //Snapshot and reset counters since last report
+        long now = System.nanoTime();
+        float rate = requestCount / Math.max((now - lastReport) / 1e9f, 0.001f);
+        int n = Math.min(latencyCount, LATENCY_SAMPLES);
+        float p99 = 0;
+        if (n > 0) {
+            long[] sorted = Arrays.copyOf(latencies, n);
+            Arrays.sort(sorted);
+            p99 = sorted[(int) Math.ceil(n * 0.99) - 1] / 1e6f;
+        }
+        requestCount = 0;
+        latencyCount = 0;
+        lastReport = now;
+        return new LoadReport(data.getArrayID(), sessions.size(), registrations, rate, p99, cpuLoad());
+    }
+
+    private static float cpuLoad() { //Host load average per processor, clamped to 0.0 - 1.0
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage() / os.getAvailableProcessors();
+        return load < 0 ? 0 : (float) Math.min(load, 1.0);
+    }
+
+    protected synchronized void recordRequest(long nanos) { //Record a served request for load reporting
+        requestCount++;
+        if (latencies != null) latencies[latencyCount++ % LATENCY_SAMPLES] = nanos;
+    }
+
+    @Override
+    public void onTopologyChange(Array data) { //Health check follows resized Array
+        array = data;
+    }
+
+    private void memberChanged(NodeDescriptor n, Membership.State state) { //Dissolve once any member is declared dead
+        if (state != Membership.State.DEAD || dissolved || FaultHooks.isHalted(port)) return;
+        dissolved = true;
+        Array data = array;
+        EventLog.log(EventLog.Level.ERROR, EventLog.Subsystem.CORE, "Node declared dead! Dissolving Array",
+                data.getRole(n), n.getID(), data.getArrayID(), -1);
+        FaultHooks.event("detect", n.getNodePort());
+        timer.cancel();
+        dissolveArray(data);
+    }
+
+    private void pingMembers() { //One hub heartbeat round over every member but the Core
+        if (FaultHooks.isHalted(port) || dissolved) return;
+        Array data = array;
+        pacer.setMembers(data.getNodeList().size());
+        for (NodeDescriptor n : data.getNodeList()) {
+            if ("Core".equals(data.getRole(n))) continue;
+            String reason = null;
+            try {
+                long rtt = pacer.beat(n, () -> Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminServer", InifNodeServer.class).ping());
+                if (rtt >= 0) {
+                    recordHeartbeat(rtt);
+                    misses.remove(n.getID());
+                } else if (misses.merge(n.getID(), 1, Integer::sum) >= HeartbeatPacer.MISSES) {
+                    reason = "Node not answering! Dissolving Array";
+                }
+            } catch (Exception e) {
+                reason = "Node timed out! Dissolving Array";
+            }
+            if (reason != null) {
+                EventLog.log(EventLog.Level.ERROR, EventLog.Subsystem.CORE, reason, data.getRole(n), n.getID(), data.getArrayID(), -1);
+                FaultHooks.event("detect", n.getNodePort());
+                dissolved = true;
+                pacer.stop();
+                timer.cancel();
+                dissolveArray(data);
+                return;
             }
-        };
+        }
     }
 
     private static void dissolveArray(Array data) {
         try {
-            Registry queryRegistry = LocateRegistry.getRegistry(data.getQueryIP(), data.getQueryPort()); //IP Address of RMI Server, port of RMIRegistry
-            InifQueryServer queryStub = (InifQueryServer) queryRegistry.lookup("QueryServer");
+            InifQueryServer queryStub = Transports.get().lookup(data.getQueryIP(), data.getQueryPort(), "QueryServer", InifQueryServer.class);
             queryStub.removeArray(data);
-            for (Node n : data.getNodeList()) {
+            for (NodeDescriptor n : data.getNodeList()) {
                 try {
-                    Registry nodeRegistry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                    InifNode nodeStub = (InifNode) nodeRegistry.lookup("AdminNode"); //Name of RMI Server in registry
+                    InifNode nodeStub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class); //Name of RMI Server in registry
                     nodeStub.unassignNode("Node Timeout");
                 } catch (Exception e1) {
                     System.err.println("Can't Contact Node! IP:" + n.getNodeIP() + " Port:" + n.getNodePort());
@@ -89,8 +256,148 @@ public class CoreShard extends Shard implements InifCore {
         }
     }
 
-    public void registerClient(Client c) {
-        playerList.add(c);
-        System.out.println("Client Registered with Core! (" + c.getClientIP() + ")");
+    public void registerClient(Client c) throws RemoteException {
+        long start = System.nanoTime(); //Whole handler: lock waits and injected slowness count toward load
+        FaultHooks.check(port);
+        Tracer.Span span = Tracer.start("registerClient", c.getTrace());
+        long key = key(c);
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            sessions.put(key, arrayHi, arrayLo, now, now);
+            states.remove(key);
+            redirects.remove(key); //Client came back
+            registrations++;
+        }
+        if (c.getCallbackPort() > 0) push.subscribe(key, c.getClientIP(), c.getCallbackPort(), c.getTopics());
+        EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CORE, "Client Registered with Core", c.getClientIP(), null, null,
+                (System.nanoTime() - start) / 1000);
+        span.end();
+        recordRequest(System.nanoTime() - start);
+    }
+
+    public void unregisterClient(Client c) throws RemoteException {
+        long start = System.nanoTime();
+        long key = key(c);
+        synchronized (this) {
+            sessions.remove(key);
+            states.remove(key);
+        }
+        push.unsubscribe(key);
+        recordRequest(System.nanoTime() - start);
+    }
+
+    public void setSessionState(Client c, byte[] state) throws RemoteException {
+        long key = key(c);
+        synchronized (this) {
+            int slot = sessions.find(key);
+            if (slot < 0) return;
+            sessions.touch(slot, System.currentTimeMillis());
+            states.put(key, state);
+        }
+    }
+
+    private static long key(Client c) throws RemoteException { //Session key of Client's source address
+        try {
+            return SessionTable.key(c.getClientIP(), c.getClientPort());
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException("Client address not usable: " + c.getClientIP());
+        }
+    }
+
+    /**
+     * migrateClients
+     * Exports sessions of up to count Clients to the target
+     * Core in one batch; once accepted, drops them here and
+     * leaves a redirect for each Client to collect
+     */
+    public int migrateClients(int count, String targetIP, int targetPort) {
+        SessionBatch batch;
+        long[] keys;
+        synchronized (this) {
+            int[] slots = newestSessions(Math.min(count, sessions.size())); //Newest sessions first; least settled
+            batch = new SessionBatch(slots.length);
+            keys = new long[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                int s = slots[i];
+                keys[i] = sessions.getKey(s);
+                batch.add(new Client(NodeDescriptor.formatIPv4(sessions.getIP(s)), sessions.getPort(s)), sessions.getSince(s), states.get(keys[i]));
+            }
+        }
+        if (batch.size() == 0) return 0;
+        try {
+            InifCore target = Transports.get().lookup(targetIP, targetPort, "Core", InifCore.class);
+            target.importSessions(batch);
+        } catch (Exception e) {
+            EventLog.warn(EventLog.Subsystem.CORE, "Session migration failed", targetIP);
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int targetAddr = NodeDescriptor.packIPv4(targetIP);
+        synchronized (this) {
+            redirects.removeIf((t, s) -> now - t.getTouched(s) > REDIRECT_TTL); //Expire old redirects
+            for (long key : keys) {
+                sessions.remove(key);
+                states.remove(key);
+                redirects.setAux(redirects.put(key, arrayHi, arrayLo, now, now), targetAddr, targetPort);
+            }
+        }
+        byte[] moved = (targetIP + ":" + targetPort).getBytes(StandardCharsets.UTF_8);
+        for (long key : keys) push.close(key, PushChannel.REDIRECT, moved); //Clients with a callback need not poll getRedirect
+        EventLog.info(EventLog.Subsystem.CORE, "Clients Migrated", batch.size() + " to " + targetIP + ":" + targetPort);
+        return batch.size();
+    }
+
+    private int[] newestSessions(int n) { //Slots of the n latest sessions, by a min-heap on start time
+        int[] heap = new int[n];
+        int size = 0;
+        if (n == 0) return heap;
+        for (int s = sessions.next(0); s >= 0; s = sessions.next(s + 1)) {
+            if (size < n) {
+                int i = size++;
+                for (; i > 0 && sessions.getSince(heap[(i - 1) / 2]) > sessions.getSince(s); i = (i - 1) / 2) heap[i] = heap[(i - 1) / 2];
+                heap[i] = s;
+            } else if (sessions.getSince(s) > sessions.getSince(heap[0])) { //Replace oldest kept
+                int i = 0;
+                for (int c; (c = 2 * i + 1) < n; i = c) {
+                    if (c + 1 < n && sessions.getSince(heap[c + 1]) < sessions.getSince(heap[c])) c++;
+                    if (sessions.getSince(heap[c]) >= sessions.getSince(s)) break;
+                    heap[i] = heap[c];
+                }
+                heap[i] = s;
+            }
+        }
+        return heap;
+    }
+
+    public void importSessions(SessionBatch batch) throws RemoteException {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            long key = key(batch.getClient(i));
+            synchronized (this) {
+                sessions.put(key, arrayHi, arrayLo, batch.getSince(i), now);
+                if (batch.getState(i) != null) states.put(key, batch.getState(i));
+                else states.remove(key);
+            }
+        }
+    }
+
+    public void publish(String topic, byte[] payload) {
+        push.publish(topic, payload);
+    }
+
+    public void publishTo(Client c, String topic, byte[] payload) throws RemoteException {
+        push.publishTo(key(c), topic, payload);
+    }
+
+    public Client getRedirect(Client c) throws RemoteException {
+        long key = key(c);
+        synchronized (this) {
+            int slot = redirects.find(key);
+            if (slot < 0) return null;
+            Client moved = new Client(c.getClientIP(), c.getClientPort());
+            moved.setCore(NodeDescriptor.formatIPv4(redirects.getAuxIP(slot)), redirects.getAuxPort(slot));
+            redirects.remove(key);
+            return moved;
+        }
     }
 }
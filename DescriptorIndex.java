@@ -0,0 +1,120 @@
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * DescriptorIndex maps Node IDs to NodeDescriptors
+ * without boxing: keys are the two longs of the UUID,
+ * held in parallel arrays with linear probing. No
+ * entry or key objects are made per Node. Not thread
+ * safe; QueryServer guards it with its own lock.
+ */
+public class DescriptorIndex {
+    private long[] his, los;
+    private NodeDescriptor[] values; //null marks an empty slot
+    private int size = 0;
+
+    public DescriptorIndex() {
+        this(64);
+    }
+
+    public DescriptorIndex(int expected) {
+        int cap = Integer.highestOneBit(Math.max(expected * 2 - 1, 15)) << 1; //Power of two, at most half full
+        his = new long[cap];
+        los = new long[cap];
+        values = new NodeDescriptor[cap];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public NodeDescriptor get(UUID id) {
+        return id == null ? null : get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public NodeDescriptor get(long hi, long lo) {
+        int i = find(hi, lo);
+        return i < 0 ? null : values[i];
+    }
+
+    public boolean contains(UUID id) {
+        return get(id) != null;
+    }
+
+    public NodeDescriptor put(NodeDescriptor d) { //Returns descriptor replaced, if any
+        if ((size + 1) * 2 > values.length) resize(values.length * 2);
+        int mask = values.length - 1;
+        for (int i = slot(d.getIdHi(), d.getIdLo()); ; i = (i + 1) & mask) {
+            if (values[i] == null) {
+                his[i] = d.getIdHi();
+                los[i] = d.getIdLo();
+                values[i] = d;
+                size++;
+                return null;
+            }
+            if (his[i] == d.getIdHi() && los[i] == d.getIdLo()) {
+                NodeDescriptor old = values[i];
+                values[i] = d;
+                return old;
+            }
+        }
+    }
+
+    public NodeDescriptor remove(UUID id) {
+        return id == null ? null : remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    public NodeDescriptor remove(long hi, long lo) {
+        int i = find(hi, lo);
+        if (i < 0) return null;
+        NodeDescriptor old = values[i];
+        int mask = values.length - 1;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) { //Shift later entries back; no tombstones
+            int home = slot(his[j], los[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                his[i] = his[j];
+                los[i] = los[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = null;
+        size--;
+        return old;
+    }
+
+    public ArrayList<NodeDescriptor> values() {
+        ArrayList<NodeDescriptor> out = new ArrayList<>(size);
+        for (NodeDescriptor d : values) if (d != null) out.add(d);
+        return out;
+    }
+
+    private int find(long hi, long lo) {
+        int mask = values.length - 1;
+        for (int i = slot(hi, lo); values[i] != null; i = (i + 1) & mask) {
+            if (his[i] == hi && los[i] == lo) return i;
+        }
+        return -1;
+    }
+
+    private int slot(long hi, long lo) {
+        long h = hi * 0x9E3779B97F4A7C15L ^ lo;
+        h ^= h >>> 32;
+        h *= 0xff51afd7ed558ccdL;
+        return (int) (h ^ (h >>> 29)) & (values.length - 1);
+    }
+
+    private void resize(int cap) {
+        NodeDescriptor[] old = values;
+        his = new long[cap];
+        los = new long[cap];
+        values = new NodeDescriptor[cap];
+        size = 0;
+        for (NodeDescriptor d : old) if (d != null) put(d);
+    }
+}
@@ -0,0 +1,150 @@
+
+import java.io.PrintStream;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * EventLog is the structured, asynchronous logger
+ * used on hot paths. Events are written into a
+ * preallocated ring and printed by a background
+ * thread, so callers never block on System.out.
+ * When the ring is full, events are dropped and counted.
+ */
+public final class EventLog {
+    public enum Level {DEBUG, INFO, WARN, ERROR}
+
+    public enum Subsystem {QUERY, CLIENT, NODE, CORE, SHARD}
+
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(Integer.getInteger("mocha.log.size", 8192), 2)); //Power of two
+    private static final int MASK = CAPACITY - 1;
+
+    //Ring slots, stored as parallel primitive arrays so logging never allocates
+    private static final long[] time = new long[CAPACITY];
+    private static final byte[] level = new byte[CAPACITY];
+    private static final byte[] subsystem = new byte[CAPACITY];
+    private static final String[] message = new String[CAPACITY];
+    private static final String[] detail = new String[CAPACITY];
+    private static final long[] nodeHi = new long[CAPACITY], nodeLo = new long[CAPACITY];
+    private static final long[] arrayHi = new long[CAPACITY], arrayLo = new long[CAPACITY];
+    private static final long[] latency = new long[CAPACITY];
+    private static final AtomicLongArray published = new AtomicLongArray(CAPACITY); //Sequence+1 of event in slot
+
+    private static final AtomicLong head = new AtomicLong(); //Next sequence to claim
+    private static volatile long tail = 0; //Next sequence to drain
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final Level[] threshold = new Level[Subsystem.values().length]; //Level per subsystem
+
+    static {
+        for (Subsystem s : Subsystem.values()) {
+            String key = "mocha.log." + s.name().toLowerCase(), l = System.getProperty(key, "INFO");
+            try {
+                threshold[s.ordinal()] = Level.valueOf(l.trim().toUpperCase());
+            } catch (IllegalArgumentException e) { //A typo must not break every later logging call
+                threshold[s.ordinal()] = Level.INFO;
+                System.err.println("EventLog: unknown level " + key + "=" + l + ", using INFO");
+            }
+        }
+        Thread drain = new Thread(EventLog::drain, "EventLog");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    private EventLog() {
+    }
+
+    public static boolean enabled(Subsystem s, Level l) {
+        return l.ordinal() >= threshold[s.ordinal()].ordinal();
+    }
+
+    public static void setLevel(Subsystem s, Level l) {
+        threshold[s.ordinal()] = l;
+    }
+
+    public static long getDropped() { //Events lost to a full ring
+        return dropped.get();
+    }
+
+    public static void info(Subsystem s, String msg) {
+        log(Level.INFO, s, msg, null, null, null, -1);
+    }
+
+    public static void info(Subsystem s, String msg, String det) {
+        log(Level.INFO, s, msg, det, null, null, -1);
+    }
+
+    public static void warn(Subsystem s, String msg, String det) {
+        log(Level.WARN, s, msg, det, null, null, -1);
+    }
+
+    public static void error(Subsystem s, String msg, String det) {
+        log(Level.ERROR, s, msg, det, null, null, -1);
+    }
+
+    /**
+     * log
+     * Records an event; msg should be a constant so no
+     * String is built on the caller's thread. Null IDs
+     * and negative latency are omitted from output.
+     */
+    public static void log(Level l, Subsystem s, String msg, String det, UUID node, UUID array, long latencyMicros) {
+        if (!enabled(s, l)) return;
+        long seq;
+        do {
+            seq = head.get();
+            if (seq - tail >= CAPACITY) { //Ring full; never wait on the drain thread
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!head.compareAndSet(seq, seq + 1));
+
+        int i = (int) (seq & MASK);
+        time[i] = System.currentTimeMillis();
+        level[i] = (byte) l.ordinal();
+        subsystem[i] = (byte) s.ordinal();
+        message[i] = msg;
+        detail[i] = det;
+        nodeHi[i] = node == null ? 0 : node.getMostSignificantBits();
+        nodeLo[i] = node == null ? 0 : node.getLeastSignificantBits();
+        arrayHi[i] = array == null ? 0 : array.getMostSignificantBits();
+        arrayLo[i] = array == null ? 0 : array.getLeastSignificantBits();
+        latency[i] = latencyMicros;
+        published.set(i, seq + 1); //Publish slot to drain thread
+    }
+
+    private static void drain() { //Background thread; prints events in order
+        StringBuilder sb = new StringBuilder(256);
+        long lastDropped = 0;
+        while (true) {
+            long seq = tail;
+            int i = (int) (seq & MASK);
+            if (published.get(i) != seq + 1) { //Nothing published yet
+                long d = dropped.get();
+                if (d != lastDropped) {
+                    System.err.println("EventLog dropped " + (d - lastDropped) + " events");
+                    lastDropped = d;
+                }
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+            sb.setLength(0);
+            Level l = Level.values()[level[i]];
+            sb.append('[').append(time[i]).append("] ").append(l).append(' ')
+                    .append(Subsystem.values()[subsystem[i]]).append(' ').append(message[i]);
+            if (detail[i] != null) sb.append(" (").append(detail[i]).append(')');
+            if (nodeHi[i] != 0 || nodeLo[i] != 0) sb.append(" node=").append(new UUID(nodeHi[i], nodeLo[i]));
+            if (arrayHi[i] != 0 || arrayLo[i] != 0) sb.append(" array=").append(new UUID(arrayHi[i], arrayLo[i]));
+            if (latency[i] >= 0) sb.append(" latency=").append(latency[i]).append("us");
+            message[i] = null;
+            detail[i] = null;
+            tail = seq + 1; //Free slot for producers
+            PrintStream out = l.ordinal() >= Level.WARN.ordinal() ? System.err : System.out;
+            out.println(sb);
+        }
+    }
+}
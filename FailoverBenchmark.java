@@ -0,0 +1,286 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * FailoverBenchmark runs a Query and its Nodes in one
+ * JVM, drives Clients against the Arrays, then plays a
+ * fault script through FaultHooks. Each step is
+ * time:target:action[:ms], steps separated by commas:
+ * time is ms after the first step, target a port or the
+ * role whose primary in the first open Array is hit, and
+ * action kill, pause (resumed after ms if given), slow
+ * (ms per call) or clear. kill-core, kill-node, pause-node
+ * and slow-node name one-step scripts. For every step it
+ * reports ms to the first detection, dissolve and re-formed
+ * Array after it, and what Clients saw over the run. Leave
+ * spare Nodes beyond full Arrays so one can re-form. With
+ * mocha.failover.state set, Workers keep that many bytes
+ * of checkpointed state, changing a mocha.failover.churn
+ * fraction of it per save.
+ * Usage: FailoverBenchmark [nodes] [script|kill-core|kill-node|pause-node|slow-node] [delayMs] [reportFile]
+ */
+public class FailoverBenchmark {
+    private static final int QUERY_PORT = Integer.getInteger("mocha.failover.port", 1170);
+    private static final long WINDOW = Long.getLong("mocha.failover.window", 60000); //ms to wait for re-form after the last step
+    private static final int CLIENT_THREADS = 2, CLIENT_PAUSE = 10; //ms between Client calls
+    private static final int STATE = Integer.getInteger("mocha.failover.state", 0); //Bytes of Worker state; 0 is stateless
+    private static final double CHURN = Double.parseDouble(System.getProperty("mocha.failover.churn", "0.01")); //Fraction of pages changed per save
+    private static final String[] MILESTONES = {"detect", "dissolve", "open", "restore"}; //Reported per step; open is re-form
+
+    private static final Queue<long[]> events = new ConcurrentLinkedQueue<>(); //Milestone index and nanoTime, in arrival order
+    private static final AtomicInteger clientOk = new AtomicInteger(), clientFailed = new AtomicInteger();
+    private static final AtomicLong lastOk = new AtomicLong(), maxStall = new AtomicLong(); //Longest gap between served Clients
+    private static volatile boolean running = true;
+
+    private static class Step { //One scripted fault
+        final long at; //ms after the first step
+        final String target, action;
+        final long ms; //Pause length or slow delay; 0 for none
+        int port = -1; //Resolved when the step runs
+        long ranAt; //nanoTime the step ran
+
+        Step(long at, String target, String action, long ms) {
+            this.at = at;
+            this.target = target;
+            this.action = action;
+            this.ms = ms;
+        }
+    }
+
+    private static class Worker extends Shard { //Minimal role; failover does not depend on Shard work
+        Worker() {
+            super("Worker");
+        }
+
+        public void startShard(Array data, Node n) {
+        }
+
+        @Override
+        public int getReplicas() {
+            return Integer.getInteger("mocha.failover.replicas", 1);
+        }
+
+        @Override
+        public int getCheckpointSize() {
+            return STATE;
+        }
+
+        @Override
+        public void saveCheckpoint(ByteBuffer state) { //Touch a random CHURN of pages
+            ThreadLocalRandom r = ThreadLocalRandom.current();
+            int pages = (STATE + Checkpoint.PAGE - 1) / Checkpoint.PAGE;
+            for (int i = 0; i < Math.max(1, (int) (pages * CHURN)); i++) state.putLong(r.nextInt(pages) * Checkpoint.PAGE, r.nextLong());
+        }
+
+        @Override
+        public void restoreCheckpoint(ByteBuffer state, long epoch) {
+            FaultHooks.event("restore", -1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        String scenario = args.length > 1 ? args[1] : "kill-node";
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 5000;
+        String reportFile = args.length > 3 ? args[3] : null;
+        if (System.getProperty("mocha.host") == null) System.setProperty("mocha.host", "127.0.0.1");
+        List<Step> script = parse(scenario, delay);
+        if (script == null) {
+            System.err.println("Bad fault script: " + scenario + " (time:target:action[:ms],...)");
+            return;
+        }
+
+        FaultHooks.setListener((event, port) -> {
+            for (int i = 0; i < MILESTONES.length; i++) {
+                if (MILESTONES[i].equals(event)) events.add(new long[]{i, System.nanoTime()});
+            }
+        });
+
+        ArrayList<Shard> shards = new ArrayList<>();
+        shards.add(new Worker());
+        Query query = new Query(shards, "Failover", QUERY_PORT);
+        if (!query.startServices()) return;
+        Node.startNodes(Query.getHostIP(), QUERY_PORT, nodes); //One registration call for all Nodes
+
+        InifQueryServer server = Transports.get().lookup(Query.getHostIP(), QUERY_PORT, "QueryServer", InifQueryServer.class);
+        int expected = nodes / ShardPlacement.requiredNodes(query.getShardList());
+        if (expected == 0 || !awaitArrays(server, expected)) {
+            System.err.println("Arrays did not form! Expected: " + expected);
+            System.exit(1);
+        }
+
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            int base = 40000 + i * 10000;
+            new Thread(() -> clientLoop(base), "Client-" + i).start();
+        }
+        Thread.sleep(2000); //Steady state before the first fault
+
+        clientOk.set(0);
+        clientFailed.set(0);
+        maxStall.set(0);
+        lastOk.set(System.nanoTime());
+        events.clear();
+        long start = System.nanoTime();
+        for (Step step : script) {
+            long wait = start + step.at * 1_000_000 - System.nanoTime();
+            if (wait > 0) Thread.sleep(wait / 1_000_000);
+            run(server, step);
+        }
+        long last = script.get(script.size() - 1).ranAt;
+        long end = last + WINDOW * 1_000_000;
+        while (System.nanoTime() < end && first(2, last, Long.MAX_VALUE) < 0) Thread.sleep(10); //Until an Array re-forms
+        running = false;
+        for (Step step : script) if (step.port >= 0) FaultHooks.clear(step.port);
+
+        StringBuilder report = new StringBuilder("script=" + scenario + " nodes=" + nodes + " arrays=" + expected + "\n");
+        for (int i = 0; i < script.size(); i++) {
+            Step step = script.get(i);
+            long until = i + 1 < script.size() ? script.get(i + 1).ranAt : Long.MAX_VALUE;
+            report.append("step=").append(i + 1).append(" at_ms=").append(step.at).append(" ").append(step.action)
+                    .append(" ").append(step.target).append(" port=").append(step.port);
+            if (step.ms > 0) report.append(" ms=").append(step.ms);
+            report.append("\n  detect_ms=").append(ms(0, step.ranAt, until)).append(" dissolve_ms=").append(ms(1, step.ranAt, until))
+                    .append(" reform_ms=").append(ms(2, step.ranAt, until));
+            if (STATE > 0) report.append(" restore_ms=").append(ms(3, step.ranAt, until)).append(" state_bytes=").append(STATE);
+            report.append("\n");
+        }
+        report.append("client_ok=").append(clientOk.get()).append(" client_failed=").append(clientFailed.get())
+                .append(" max_stall_ms=").append(Math.max(maxStall.get(), (System.nanoTime() - lastOk.get()) / 1_000_000)).append("\n");
+        System.out.print(report);
+        if (reportFile != null) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(reportFile, true))) {
+                out.print(report);
+            } catch (IOException e) {
+                System.err.println("Unable to write report! Path: " + reportFile);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * parse
+     * Steps of a fault script in time order, or null if
+     * malformed. A named scenario is a one-step script
+     */
+    private static List<Step> parse(String script, long delay) {
+        switch (script) {
+            case "kill-core":
+                script = "0:Core:kill";
+                break;
+            case "kill-node":
+                script = "0:Worker:kill";
+                break;
+            case "pause-node":
+                script = "0:Worker:pause:" + delay;
+                break;
+            case "slow-node":
+                script = "0:Worker:slow:" + delay;
+                break;
+        }
+        List<Step> steps = new ArrayList<>();
+        try {
+            for (String s : script.split(",")) {
+                String[] f = s.trim().split(":");
+                if (f.length < 3 || f.length > 4 || !f[2].matches("kill|pause|slow|clear")) return null;
+                steps.add(new Step(Long.parseLong(f[0]), f[1], f[2], f.length == 4 ? Long.parseLong(f[3]) : 0));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        steps.sort((a, b) -> Long.compare(a.at, b.at));
+        return steps;
+    }
+
+    private static void run(InifQueryServer server, Step step) { //Resolve target and apply the fault
+        try {
+            step.port = step.target.matches("\\d+") ? Integer.parseInt(step.target)
+                    : server.getArrayList().get(0).getPrimary(step.target).getNodePort();
+        } catch (Exception e) {
+            System.err.println("Fault target not found! " + step.target);
+            step.ranAt = System.nanoTime();
+            return;
+        }
+        step.ranAt = System.nanoTime();
+        int port = step.port;
+        switch (step.action) {
+            case "kill":
+                FaultHooks.inject(port, FaultHooks.Fault.DEAD, 0);
+                break;
+            case "pause":
+                FaultHooks.inject(port, FaultHooks.Fault.PAUSED, 0);
+                if (step.ms > 0) new Thread(() -> { //Resume after ms
+                    try {
+                        Thread.sleep(step.ms);
+                    } catch (InterruptedException ignored) {
+                    }
+                    FaultHooks.clear(port);
+                }).start();
+                break;
+            case "slow":
+                FaultHooks.inject(port, FaultHooks.Fault.SLOW, step.ms);
+                break;
+            case "clear":
+                FaultHooks.clear(port);
+                break;
+        }
+    }
+
+    private static long first(int milestone, long from, long until) { //nanoTime of first milestone in window, or -1
+        for (long[] e : events) if (e[0] == milestone && e[1] >= from && e[1] < until) return e[1];
+        return -1;
+    }
+
+    private static String ms(int milestone, long from, long until) {
+        long at = first(milestone, from, until);
+        return at < 0 ? "none" : String.valueOf((at - from) / 1_000_000);
+    }
+
+    private static boolean awaitArrays(InifQueryServer server, int expected) throws Exception {
+        long end = System.currentTimeMillis() + WINDOW;
+        while (System.currentTimeMillis() < end) {
+            if (server.getArrayList().size() >= expected) return true;
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private static void clientLoop(int basePort) { //New Client each call: assign, then register with Core
+        int next = basePort;
+        while (running) {
+            try {
+                InifQueryClient qc = Transports.get().lookup(Query.getHostIP(), QUERY_PORT, "QueryClient", InifQueryClient.class);
+                Client c = new Client(Query.getHostIP(), next++);
+                Array a = qc.assignToArray(c);
+                if (a == null) throw new RemoteException("No Array open");
+                c.setServer(a); //Takes on the trace, if Query sampled this Client
+                NodeDescriptor core = a.getCore();
+                Transports.get().lookup(core.getNodeIP(), core.getNodePort(), "Core", InifCore.class).registerClient(c);
+                long now = System.nanoTime();
+                long prev = lastOk.getAndSet(now);
+                maxStall.accumulateAndGet((now - prev) / 1_000_000, Math::max);
+                clientOk.incrementAndGet();
+            } catch (Exception e) {
+                clientFailed.incrementAndGet();
+            }
+            try {
+                Thread.sleep(CLIENT_PAUSE);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
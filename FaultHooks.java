@@ -0,0 +1,90 @@
+
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * FaultHooks lets a test harness fail Nodes that run
+ * in its own JVM, by port: dead Nodes refuse every call,
+ * paused Nodes hold calls until resumed, slow Nodes delay
+ * them. Halted Nodes also stop their own timers. With no
+ * faults set, every hook is a single map check.
+ */
+public final class FaultHooks {
+    public enum Fault {DEAD, PAUSED, SLOW}
+
+    public interface Listener {
+        void onEvent(String event, int port);
+    }
+
+    private static final Map<Integer, Fault> faults = new ConcurrentHashMap<>();
+    private static final Map<Integer, Long> delays = new ConcurrentHashMap<>();
+    private static volatile Listener listener = null;
+
+    private FaultHooks() {
+    }
+
+    public static void inject(int port, Fault fault, long delayMillis) {
+        delays.put(port, delayMillis);
+        faults.put(port, fault);
+        EventLog.warn(EventLog.Subsystem.NODE, "Fault Injected", fault + " port=" + port);
+    }
+
+    public static void clear(int port) { //Resume a paused or slowed Node
+        faults.remove(port);
+        synchronized (faults) {
+            faults.notifyAll();
+        }
+    }
+
+    public static void setListener(Listener l) {
+        listener = l;
+    }
+
+    /**
+     * check
+     * Called on entry to remote methods of a Node
+     */
+    static void check(int port) throws RemoteException {
+        if (faults.isEmpty()) return;
+        Fault f = faults.get(port);
+        if (f == null) return;
+        switch (f) {
+            case DEAD:
+                throw new RemoteException("Node dead (injected)");
+            case PAUSED:
+                synchronized (faults) {
+                    while (faults.get(port) == Fault.PAUSED) {
+                        try {
+                            faults.wait();
+                        } catch (InterruptedException e) {
+                            throw new RemoteException("Interrupted while paused");
+                        }
+                    }
+                }
+                break;
+            case SLOW:
+                try {
+                    Thread.sleep(delays.getOrDefault(port, 0L));
+                } catch (InterruptedException e) {
+                    throw new RemoteException("Interrupted while slowed");
+                }
+                break;
+        }
+    }
+
+    static boolean isHalted(int port) { //Dead or paused Nodes run no timers
+        if (faults.isEmpty()) return false;
+        Fault f = faults.get(port);
+        return f == Fault.DEAD || f == Fault.PAUSED;
+    }
+
+    static void event(String event, int port) { //Report failover milestone to harness
+        Listener l = listener;
+        if (l != null) l.onEvent(event, port);
+    }
+}
@@ -0,0 +1,85 @@
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * HealthDigest is the periodic summary a Core pushes
+ * to the Query server for its Array: the state of every
+ * member, heartbeat round trips and session count. Query
+ * keeps only the latest digest per Array.
+ */
+public class HealthDigest implements Serializable {
+    private final UUID arrayID;
+    private final long epoch; //Sequence of digests from this Core; stale ones are ignored
+    private final long[] memberHi, memberLo; //Member IDs, as two longs each
+    private final byte[] states; //Membership.State ordinal per member
+    private final int rttP50, rttP99; //Heartbeat round trip seen by the Core (us)
+    private final int sessions;
+
+    public HealthDigest(UUID arrayID, long epoch, Map<UUID, Membership.State> view, long[] rttMicros, int sessions) {
+        this.arrayID = arrayID;
+        this.epoch = epoch;
+        this.memberHi = new long[view.size()];
+        this.memberLo = new long[view.size()];
+        this.states = new byte[view.size()];
+        int i = 0;
+        for (Map.Entry<UUID, Membership.State> e : view.entrySet()) {
+            memberHi[i] = e.getKey().getMostSignificantBits();
+            memberLo[i] = e.getKey().getLeastSignificantBits();
+            states[i++] = (byte) e.getValue().ordinal();
+        }
+        Arrays.sort(rttMicros);
+        this.rttP50 = pct(rttMicros, 0.50);
+        this.rttP99 = pct(rttMicros, 0.99);
+        this.sessions = sessions;
+    }
+
+    private static int pct(long[] sorted, double p) {
+        if (sorted.length == 0) return -1;
+        return (int) sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+
+    public UUID getArrayID() {
+        return arrayID;
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public int getMemberCount() {
+        return states.length;
+    }
+
+    public UUID getMember(int i) {
+        return new UUID(memberHi[i], memberLo[i]);
+    }
+
+    public Membership.State getState(int i) {
+        return Membership.State.values()[states[i]];
+    }
+
+    public int count(Membership.State state) { //Members currently in state
+        int n = 0;
+        for (byte s : states) if (s == state.ordinal()) n++;
+        return n;
+    }
+
+    public int getRttP50() { //-1 when no heartbeats were sampled
+        return rttP50;
+    }
+
+    public int getRttP99() {
+        return rttP99;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+}
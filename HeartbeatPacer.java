@@ -0,0 +1,174 @@
+
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * HeartbeatPacer sets heartbeat interval and timeout from
+ * what it measures. Timeout follows smoothed round trip
+ * plus four deviations, as TCP does. Interval widens a
+ * quarter each healthy round, up to the ceiling, and halves
+ * when a round trip climbs out of the usual range or a
+ * heartbeat times out. Its floor rises with Array size so
+ * the member everyone checks is not flooded. Callers treat
+ * a call that fails outright as a failure at once, and
+ * timeouts only once MISSES of them come in a row.
+ * A call that times out may still hang its thread, so
+ * calls run on a bounded pool and a member is not called
+ * again while its last call is outstanding.
+ */
+public class HeartbeatPacer {
+    private static final int FLOOR = Integer.getInteger("mocha.heartbeat.floor", 200); //ms, shortest interval
+    private static final int CEILING = Integer.getInteger("mocha.heartbeat.ceiling", 2000); //ms, longest interval and timeout
+    private static final int MIN_TIMEOUT = Integer.getInteger("mocha.heartbeat.timeout", 100); //ms, shortest timeout
+    private static final int RATE = Integer.getInteger("mocha.heartbeat.rate", 50); //Heartbeats per second one member should answer, at most
+    public static final int MISSES = Integer.getInteger("mocha.heartbeat.misses", 2); //Timeouts in a row that mean failure
+    private static final int HEALTHY_ROUNDS = 3; //Rounds without a climb before widening
+    private static final int MAX_CALLS = Integer.getInteger("mocha.heartbeat.threads", 32); //Heartbeat calls outstanding at once, per JVM
+    private static final ExecutorService calls = new ThreadPoolExecutor(0, MAX_CALLS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> { //Heartbeats may hang on a stalled member
+        Thread t = new Thread(r, "Heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Set<NodeDescriptor> outstanding = ConcurrentHashMap.newKeySet(); //Members whose last call has not returned
+
+    private double srtt = -1, rttvar; //Smoothed round trip and deviation (ms)
+    private long interval; //ms
+    private int members = 1, healthy;
+    private boolean missed; //A heartbeat timed out this round
+    private volatile boolean stopped;
+
+    public HeartbeatPacer(long initial) {
+        interval = initial;
+    }
+
+    public synchronized void setMembers(int members) { //Members heartbeating one another
+        this.members = Math.max(members, 1);
+    }
+
+    public synchronized long interval() {
+        return Math.max(floor(), Math.min(interval, CEILING));
+    }
+
+    public synchronized long timeout() {
+        if (srtt < 0) return CEILING; //Nothing measured yet
+        return Math.max(MIN_TIMEOUT, Math.min(CEILING, (long) Math.ceil(srtt + 4 * rttvar)));
+    }
+
+    private long floor() {
+        return Math.min(CEILING, Math.max(FLOOR, 1000L * members / RATE));
+    }
+
+    /**
+     * beat
+     * Runs one heartbeat call to member under the current
+     * timeout. Returns its round trip (us), -1 on a timeout
+     * or while an earlier call to member is outstanding, or
+     * throws what the call threw.
+     */
+    public long beat(NodeDescriptor member, Callable<?> call) throws Exception {
+        if (!outstanding.add(member)) { //Still hung on the last call; it counts as another miss
+            synchronized (this) {
+                missed = true;
+            }
+            return -1;
+        }
+        long timeout = timeout(), start = System.nanoTime();
+        Future<?> f;
+        try {
+            f = calls.submit(() -> {
+                try {
+                    return call.call();
+                } finally {
+                    outstanding.remove(member);
+                }
+            });
+        } catch (RejectedExecutionException e) { //Every thread is hung on a stalled member
+            outstanding.remove(member);
+            synchronized (this) {
+                missed = true;
+            }
+            return -1;
+        }
+        try {
+            f.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            //Not cancelled: a blocked read ignores interrupts, so the member stays outstanding until the call returns
+            synchronized (this) {
+                missed = true;
+                tighten();
+            }
+            return -1;
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        sample(micros / 1000.0);
+        return micros;
+    }
+
+    public synchronized void sample(double ms) {
+        if (srtt < 0) {
+            srtt = ms;
+            rttvar = ms / 2;
+            return;
+        }
+        boolean climbing = ms > srtt + 4 * rttvar;
+        rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - ms);
+        srtt = 0.875 * srtt + 0.125 * ms;
+        if (climbing) tighten();
+    }
+
+    private void tighten() {
+        healthy = 0;
+        interval = Math.max(floor(), interval / 2);
+    }
+
+    public synchronized void roundDone() { //Call after each round; widens after healthy rounds
+        if (missed) {
+            missed = false;
+        } else if (++healthy >= HEALTHY_ROUNDS) {
+            healthy = 0;
+            interval = Math.min(CEILING, interval + interval / 4);
+        }
+    }
+
+    /**
+     * schedule
+     * Runs round after delay, then again after each
+     * round at whatever the interval has become
+     */
+    public void schedule(Timer timer, long delay, Runnable round) {
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (stopped) return;
+                round.run();
+                roundDone();
+                try {
+                    if (!stopped) schedule(timer, interval(), round);
+                } catch (IllegalStateException e) { //Timer cancelled
+                    stopped = true;
+                }
+            }
+        }, delay);
+    }
+
+    public void stop() {
+        stopped = true;
+    }
+}
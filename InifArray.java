@@ -1,7 +1,7 @@
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
-import java.util.HashMap;
+import java.util.ArrayList;
 
 /**
  * Created 10/25/2016
@@ -15,10 +15,18 @@ import java.util.HashMap;
  */
 public interface InifArray extends Remote {
 
-    void setCoreNode(Node n) throws RemoteException;
+    void addNode(NodeDescriptor node) throws RemoteException;
+    // Add a Node to the Array under its role
 
-    void addShardMap(Node node) throws RemoteException;
+    NodeDescriptor getPrimary(String role) throws RemoteException;
+    // Get first replica of a role
 
-    HashMap<String, Node> getShardMap() throws RemoteException;
-    // Get Map linking nodes to Shards
+    ArrayList<NodeDescriptor> getReplicas(String role) throws RemoteException;
+    // Get every replica Node of a role
+
+    NodeDescriptor routeByKey(String role, Object key) throws RemoteException;
+    // Route a keyed request to a replica by consistent hashing
+
+    NodeDescriptor routeRoundRobin(String role) throws RemoteException;
+    // Route an unkeyed request to the next replica
 }
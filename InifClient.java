@@ -0,0 +1,18 @@
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * InifClient is the callback endpoint a Client exports,
+ * under the name "Client", to receive pushed updates
+ * from its Core. Each call carries every update gathered
+ * for the Client over one push window.
+ */
+public interface InifClient extends Remote {
+    void deliver(PushBatch batch) throws RemoteException;
+    //Coalesced updates, latest payload per topic
+}
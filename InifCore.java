@@ -8,4 +8,25 @@ import java.rmi.RemoteException;
  */
 public interface InifCore extends Remote {
     void registerClient(Client c) throws RemoteException;
+
+    void unregisterClient(Client c) throws RemoteException;
+    //Client leaving the Array; frees its session
+
+    void setSessionState(Client c, byte[] state) throws RemoteException;
+    //Attach opaque state to a Client's session; moves with the Client
+
+    int migrateClients(int count, String targetIP, int targetPort) throws RemoteException;
+    //Move up to count sessions to another Core; returns count moved
+
+    void importSessions(SessionBatch batch) throws RemoteException;
+    //Accept sessions migrated from another Core
+
+    Client getRedirect(Client c) throws RemoteException;
+    //New Core endpoint for a migrated Client, or null if not moved
+
+    void publish(String topic, byte[] payload) throws RemoteException;
+    //Push update to every Client with a callback; latest per topic is kept
+
+    void publishTo(Client c, String topic, byte[] payload) throws RemoteException;
+    //Push update to one Client
 }
@@ -24,6 +24,12 @@ public interface InifNode extends Remote {
 
     void startService() throws RemoteException;
 
+    void updateArray(Array data) throws RemoteException;
+    //Push new membership of running Array to Node
+
+    void drainNode(String reason) throws RemoteException;
+    //Finish in-flight work, then return Node to pool
+
     void unassignNode(String reason) throws RemoteException;
 
     void terminateNode(String reason) throws RemoteException;
@@ -1,6 +1,7 @@
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.UUID;
 
 /**
  * Created 11/17/2016
@@ -14,4 +15,10 @@ import java.rmi.RemoteException;
  */
 public interface InifNodeServer extends Remote {
     boolean ping() throws RemoteException;
+
+    MemberUpdate[] probe(MemberUpdate[] updates) throws RemoteException;
+    //SWIM direct probe; piggybacked news in, ack with news out
+
+    MemberUpdate[] probeFor(UUID target, MemberUpdate[] updates) throws RemoteException;
+    //SWIM indirect probe of target; null if target did not ack
 }
@@ -2,6 +2,7 @@
 
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.UUID;
 
 /**
  * Created 12/7/2016
@@ -22,4 +23,10 @@ public interface InifQueryClient extends Remote {
 
     void closeArray(Array data) throws RemoteException;
     //Close Array from connections
+
+    void reportLoad(LoadReport report) throws RemoteException;
+    //Live load of an Array, pushed by its Core
+
+    void drainClients(UUID arrayID) throws RemoteException;
+    //Close Array to new Clients and migrate its Clients to other Arrays
 }
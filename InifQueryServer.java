@@ -3,6 +3,8 @@
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * Created 11/17/2016
@@ -15,20 +17,65 @@ import java.util.ArrayList;
  * and each method can throw a RemoteException
  */
 public interface InifQueryServer extends Remote {
+    boolean ping() throws RemoteException;
+    //Liveness and round-trip check
+
     Node registerNode(Node n) throws RemoteException;
     //Register connection with Node
 
+    UUID[] registerNodes(List<NodeDescriptor> nodes, long[] resumeTokens) throws RemoteException;
+    //Register many Nodes in one call, with the token of each; returns their IDs in order
+
+    boolean nodeAvailable(UUID nodeID, long resumeToken) throws RemoteException;
+    //Node left its Array and rejoins pool; false if Node must register again
+
     void removeArray(Array a) throws RemoteException;
     //Dissolve Array
 
+    boolean coreLost(UUID arrayID, UUID nodeID) throws RemoteException;
+    //Member reports its Core unreachable; true once Query has dissolved the Array, false if the Core answers Query
+
+    void shardReady(UUID arrayID, String role, long startupMillis) throws RemoteException;
+    //Node reports its Shard started and is ready
+
+    void shardFailed(UUID arrayID, String role, String reason) throws RemoteException;
+    //Node reports its Shard could not start
+
+    long pushCheckpoint(UUID nodeID, CheckpointDelta delta) throws RemoteException;
+    //Role primary ships changed checkpoint pages; returns new version, or -1 if its Array epoch is stale
+
+    CheckpointDelta fetchCheckpoint(UUID nodeID, UUID stateID, String role, long known) throws RemoteException;
+    //Pages of a role's checkpoint newer than version known, or null if none saved
+
+    void queryErrState(String report) throws RemoteException;
+    //Node reports a failure in its Array, such as a lost Core
+
+    void reportHealth(HealthDigest digest) throws RemoteException;
+    //Core pushes periodic health of its Array
+
+    ArrayList<HealthDigest> getHealth() throws RemoteException;
+    //Latest health digest of every Array
+
+    void printHealth() throws RemoteException;
+    //Console print cluster health, one line per Array
+
     void printUnassignedNodes() throws RemoteException;
     //Console print Unassigned nodes on Query server
 
+    void printArrays() throws RemoteException;
+    //Console print Arrays and their members on Query server
+
+    int growArray(UUID arrayID, String role, int count) throws RemoteException;
+    //Add unassigned Nodes to running Array as replicas of role
+
+    boolean drainArray(UUID arrayID, UUID nodeID) throws RemoteException;
+    //Remove Node from running Array and return it to pool
+
     ArrayList<Shard> getShardList() throws RemoteException;
 
     ArrayList<Array> getArrayList() throws RemoteException;
 
-    ArrayList<Node> getUnassignedNodes() throws RemoteException;
+    ArrayList<NodeDescriptor> getUnassignedNodes() throws RemoteException;
 
     void stopQuery(String altQryIP, int altQryPrt) throws RemoteException;
     //Stop query server, designating an alternate to transfer arrayMeta
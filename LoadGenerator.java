@@ -0,0 +1,236 @@
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * LoadGenerator drives simulated Clients through
+ * assignToArray and registerClient on a schedule of
+ * arrivals: steady at mocha.load.rate per second, a ramp
+ * up to that rate, or steady with bursts. Each arrival is
+ * one of a fixed population of Clients, so Clients return
+ * and are balanced again on live load, re-registering
+ * with whichever Core they are sent to; each holds its
+ * session for mocha.load.hold ms. Latency is measured from when an
+ * arrival was due, so a stalled cluster is not hidden by
+ * arrivals that queued behind it. Appends throughput,
+ * percentiles, Clients per Array and errors to reportFile.
+ * With nodes 0 it targets a running Query at mocha.host
+ * and mocha.load.port instead of starting one.
+ * Usage: LoadGenerator [nodes] [steady|ramp|burst] [clients] [durationMs] [reportFile]
+ */
+public class LoadGenerator {
+    private static final int QUERY_PORT = Integer.getInteger("mocha.load.port", 1190);
+    private static final int RATE = Integer.getInteger("mocha.load.rate", 500); //Arrivals per second; peak of a ramp, base of bursts
+    private static final int HOLD = Integer.getInteger("mocha.load.hold", 2000); //ms a Client keeps its session
+    private static final int THREADS = Integer.getInteger("mocha.load.threads", 32); //Arrivals in flight at once
+    private static final int BURST = Integer.getInteger("mocha.load.burst", 10); //Rate multiple during a burst
+    private static final int BURST_EVERY = Integer.getInteger("mocha.load.burstEvery", 5000); //ms between burst starts
+    private static final int BURST_LENGTH = Integer.getInteger("mocha.load.burstLength", 500); //ms each burst lasts
+    private static final int FORM_WAIT = 60000; //ms to wait for Arrays to form
+
+    private static final Map<UUID, LongAdder> perArray = new ConcurrentHashMap<>(); //Arrivals served by each Array
+    private static final Map<String, LongAdder> errors = new ConcurrentHashMap<>(); //Failed arrivals by step and cause
+
+    private static class Worker extends Shard { //Minimal role; load lands on Query and Core
+        Worker() {
+            super("Worker");
+        }
+
+        public void startShard(Array data, Node n) {
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String curve = args.length > 1 ? args[1] : "steady";
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        long duration = args.length > 3 ? Long.parseLong(args[3]) : 30000;
+        String reportFile = args.length > 4 ? args[4] : "load-report.txt";
+        if (System.getProperty("mocha.host") == null) System.setProperty("mocha.host", "127.0.0.1");
+        long[] due = schedule(curve, duration);
+        if (due == null) {
+            System.err.println("Unknown arrival curve: " + curve + " (steady, ramp or burst)");
+            return;
+        }
+
+        int arrays;
+        if (nodes > 0) {
+            ArrayList<Shard> shards = new ArrayList<>();
+            shards.add(new Worker());
+            Query query = new Query(shards, "Load", QUERY_PORT);
+            if (!query.startServices()) return;
+            Node.startNodes(Query.getHostIP(), QUERY_PORT, nodes);
+            arrays = nodes / ShardPlacement.requiredNodes(query.getShardList());
+        } else {
+            arrays = 1; //Whatever is open; at least one
+        }
+        InifQueryServer server = Transports.get().lookup(Query.getHostIP(), QUERY_PORT, "QueryServer", InifQueryServer.class);
+        if (arrays == 0 || !awaitArrays(server, arrays)) {
+            System.err.println("Arrays did not form! Expected: " + arrays);
+            System.exit(1);
+        }
+        InifQueryClient qc = Transports.get().lookup(Query.getHostIP(), QUERY_PORT, "QueryClient", InifQueryClient.class);
+
+        long[] assignNs = new long[due.length], registerNs = new long[due.length], totalNs = new long[due.length]; //-1 when failed
+        AtomicIntegerArray generation = new AtomicIntegerArray(clients); //Arrivals of each Client, so only its latest session is ended
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        ScheduledExecutorService holds = Executors.newSingleThreadScheduledExecutor();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < due.length; i++) {
+            long wait = start + due[i] - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+            int arrival = i, id = i % clients;
+            pool.execute(() -> {
+                arrive(qc, start + due[arrival], id, generation, holds, assignNs, registerNs, totalNs, arrival);
+                done.incrementAndGet();
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(FORM_WAIT, TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        holds.shutdownNow();
+
+        String report = report(curve, nodes, clients, duration, due.length, done.get(), seconds, assignNs, registerNs, totalNs);
+        System.out.print(report);
+        try (PrintWriter out = new PrintWriter(new FileWriter(reportFile, true))) {
+            out.print(report);
+        } catch (IOException e) {
+            System.err.println("Unable to write report! Path: " + reportFile);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * schedule
+     * Due time of every arrival (ns from start): each
+     * follows the last by the gap the curve's rate gives
+     */
+    private static long[] schedule(String curve, long duration) {
+        long[] due = new long[1024];
+        int n = 0;
+        long end = duration * 1_000_000;
+        for (double t = 0; t < end; ) {
+            double rate = rate(curve, (long) t / 1_000_000, duration);
+            if (rate < 0) return null;
+            if (n == due.length) due = Arrays.copyOf(due, n * 2);
+            due[n++] = (long) t;
+            t += 1e9 / rate;
+        }
+        return Arrays.copyOf(due, n);
+    }
+
+    private static double rate(String curve, long ms, long duration) { //Arrivals per second ms into the run; -1 for unknown curves
+        switch (curve) {
+            case "steady":
+                return RATE;
+            case "ramp": //From a tenth of the rate up to all of it
+                return RATE * (0.1 + 0.9 * ms / duration);
+            case "burst":
+                return ms % BURST_EVERY < BURST_LENGTH ? RATE * BURST : RATE;
+            default:
+                return -1;
+        }
+    }
+
+    private static void arrive(InifQueryClient qc, long dueAt, int id, AtomicIntegerArray generation, ScheduledExecutorService holds,
+                               long[] assignNs, long[] registerNs, long[] totalNs, int i) {
+        assignNs[i] = registerNs[i] = totalNs[i] = -1;
+        Client c = new Client("127." + (id >> 16 & 255) + "." + (id >> 8 & 255) + "." + (id & 255), 40000); //Distinct address per Client
+        String step = "assign";
+        try {
+            long t0 = System.nanoTime();
+            Array a = qc.assignToArray(c);
+            long t1 = System.nanoTime();
+            assignNs[i] = t1 - t0;
+            step = "register";
+            c.setServer(a); //Takes on the trace, if Query sampled this Client
+            NodeDescriptor core = a.getCore();
+            InifCore stub = Transports.get().lookup(core.getNodeIP(), core.getNodePort(), "Core", InifCore.class);
+            stub.registerClient(c);
+            long t2 = System.nanoTime();
+            registerNs[i] = t2 - t1;
+            totalNs[i] = t2 - dueAt;
+            perArray.computeIfAbsent(a.getArrayID(), k -> new LongAdder()).increment();
+
+            int gen = generation.incrementAndGet(id);
+            holds.schedule(() -> {
+                if (generation.get(id) != gen) return; //Client came back; its newer session ends later
+                try {
+                    stub.unregisterClient(c);
+                } catch (Exception e) {
+                    errors.computeIfAbsent("unregister " + e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+                }
+            }, HOLD, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            errors.computeIfAbsent(step + " " + e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        }
+    }
+
+    private static String report(String curve, int nodes, int clients, long duration, int planned, int done, double seconds,
+                                 long[] assignNs, long[] registerNs, long[] totalNs) {
+        long[] total = served(totalNs);
+        StringBuilder sb = new StringBuilder();
+        sb.append("curve=").append(curve).append(" rate=").append(RATE).append(" nodes=").append(nodes)
+                .append(" clients=").append(clients).append(" durationMs=").append(duration).append(" holdMs=").append(HOLD)
+                .append(" transport=").append(System.getProperty("mocha.transport", "rmi"))
+                .append(" balance=").append(System.getProperty("mocha.balance", "p2c")).append("\n");
+        sb.append("arrivals=").append(planned).append(" completed=").append(done).append(" served=").append(total.length)
+                .append(String.format(" throughput=%.1f/s", total.length / seconds)).append("\n");
+        sb.append(percentiles("latency", total)).append(percentiles("assign", served(assignNs)))
+                .append(percentiles("register", served(registerNs)));
+        TreeMap<String, Long> arrays = new TreeMap<>();
+        for (Map.Entry<UUID, LongAdder> e : perArray.entrySet()) arrays.put(e.getKey().toString(), e.getValue().sum());
+        sb.append("arrays=").append(arrays.size());
+        for (Map.Entry<String, Long> e : arrays.entrySet()) sb.append(" ").append(e.getKey(), 0, 8).append("=").append(e.getValue());
+        sb.append("\n");
+        long failed = 0;
+        for (LongAdder e : errors.values()) failed += e.sum();
+        sb.append("errors=").append(failed);
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(errors).entrySet()) sb.append(" [").append(e.getKey()).append("]=").append(e.getValue().sum());
+        sb.append("\n");
+        return sb.toString();
+    }
+
+    private static long[] served(long[] ns) { //Sorted latencies of arrivals that succeeded
+        return Arrays.stream(ns).filter(l -> l >= 0).sorted().toArray();
+    }
+
+    private static String percentiles(String name, long[] sorted) {
+        return String.format("%s_ms p50=%.2f p90=%.2f p99=%.2f p999=%.2f max=%.2f%n", name,
+                pct(sorted, 0.50) / 1e6, pct(sorted, 0.90) / 1e6, pct(sorted, 0.99) / 1e6, pct(sorted, 0.999) / 1e6,
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+
+    private static boolean awaitArrays(InifQueryServer server, int expected) throws Exception {
+        long end = System.currentTimeMillis() + FORM_WAIT;
+        while (System.currentTimeMillis() < end) {
+            if (server.getArrayList().size() >= expected) return true;
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
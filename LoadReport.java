@@ -0,0 +1,62 @@
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * LoadReport is the compact message a Core
+ * sends to the QueryClient on a schedule. It
+ * carries the live load of one Array so the
+ * balancer works from current, not lifetime, totals.
+ */
+public class LoadReport implements Serializable {
+    private final long idHigh, idLow; //Array ID, stored as two longs to keep the message small
+    private final int sessions; //Live Client sessions on the Core
+    private final long registrations; //Clients registered since the Core started
+    private final float requestRate; //Requests per second since last report
+    private final float p99Millis; //99th percentile request latency
+    private final float cpu; //CPU load of the Core host, 0.0 - 1.0
+    private final long timestamp; //Time report was taken (ms)
+
+    public LoadReport(UUID arrayID, int sessions, long registrations, float requestRate, float p99Millis, float cpu) {
+        this.idHigh = arrayID.getMostSignificantBits();
+        this.idLow = arrayID.getLeastSignificantBits();
+        this.sessions = sessions;
+        this.registrations = registrations;
+        this.requestRate = requestRate;
+        this.p99Millis = p99Millis;
+        this.cpu = cpu;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public UUID getArrayID() {
+        return new UUID(idHigh, idLow);
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public long getRegistrations() {
+        return registrations;
+    }
+
+    public float getRequestRate() {
+        return requestRate;
+    }
+
+    public float getP99Millis() {
+        return p99Millis;
+    }
+
+    public float getCpu() {
+        return cpu;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,36 @@
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * MemberUpdate is one piece of membership news,
+ * piggybacked on SWIM probes and acks: a member, the
+ * state it is believed to be in, and its incarnation.
+ */
+public class MemberUpdate implements Serializable {
+    private final UUID id;
+    private final Membership.State state;
+    private final int incarnation; //Raised by a member to refute suspicion of itself
+
+    public MemberUpdate(UUID id, Membership.State state, int incarnation) {
+        this.id = id;
+        this.state = state;
+        this.incarnation = incarnation;
+    }
+
+    public UUID getID() {
+        return id;
+    }
+
+    public Membership.State getState() {
+        return state;
+    }
+
+    public int getIncarnation() {
+        return incarnation;
+    }
+}
@@ -0,0 +1,355 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * Membership runs SWIM failure detection among the
+ * members of one Array. Each period a member probes one
+ * other member in shuffled round-robin order; if no ack
+ * comes, it asks a few others to probe indirectly before
+ * suspecting it. Suspicion and death spread piggybacked
+ * on probes, so probe load per member stays constant as
+ * the Array grows, and every member, the Core included,
+ * holds the whole view. A probe that times out may still
+ * hang its thread, so probes run on a bounded pool and a
+ * member is not probed again until its last call returns.
+ */
+public class Membership {
+    public enum State {ALIVE, SUSPECT, DEAD}
+
+    public interface Listener {
+        void onChange(NodeDescriptor member, State state);
+    }
+
+    public static final boolean ENABLED = !"hub".equals(System.getProperty("mocha.membership", "swim")); //"hub" restores Core ping checks
+    private static final int PERIOD = Integer.getInteger("mocha.swim.period", 1000); //ms between probes
+    private static final int PROBE_TIMEOUT = Integer.getInteger("mocha.swim.timeout", 400); //ms to wait for a direct ack
+    private static final int INDIRECT = Integer.getInteger("mocha.swim.k", 3); //Members asked to probe indirectly
+    private static final int SUSPECT_MULT = Integer.getInteger("mocha.swim.suspect", 3); //Suspicion periods, scaled by log10(n)
+    private static final int RETRANSMIT_MULT = 3; //Times an update is piggybacked, scaled by log2(n)
+    private static final int MAX_PIGGYBACK = 8; //Updates carried per message
+    private static final int RTT_SAMPLES = 256; //Ring of recent direct probe round trips
+    private static final MemberUpdate[] NONE = new MemberUpdate[0];
+    private static final int MAX_PROBES = Integer.getInteger("mocha.swim.threads", 32); //Probe calls outstanding at once, per JVM
+    private static final ExecutorService probes = new ThreadPoolExecutor(0, MAX_PROBES, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> { //Probe calls may hang on a stalled member
+        Thread t = new Thread(r, "SWIM-probe");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService notices = Executors.newCachedThreadPool(r -> { //Listener calls; at most one per member state change
+        Thread t = new Thread(r, "SWIM-notice");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final UUID selfID;
+    private final int port; //Local Node port, for fault hooks
+    private int incarnation = 0;
+    private final Map<UUID, Member> members = new HashMap<>();
+    private final List<Member> order = new ArrayList<>(); //Probe order, reshuffled each pass
+    private int next = 0;
+    private final Map<UUID, Gossip> gossip = new HashMap<>(); //Latest news per member, awaiting dissemination
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<UUID> outstanding = ConcurrentHashMap.newKeySet(); //Members with a probe call not yet returned
+    private Timer timer;
+    private String[] roles = new String[0]; //Role table of the Array, for logging
+    private final long[] rtts = new long[RTT_SAMPLES]; //us
+    private int rttCount = 0;
+    private final HeartbeatPacer pacer = new HeartbeatPacer(PERIOD); //Direct probe timeout, from measured round trips
+
+    private static class Member {
+        final NodeDescriptor node;
+        State state = State.ALIVE;
+        int incarnation = 0;
+        long suspectSince;
+
+        Member(NodeDescriptor node) {
+            this.node = node;
+        }
+    }
+
+    private static class Gossip {
+        final MemberUpdate update;
+        int sent = 0;
+
+        Gossip(MemberUpdate update) {
+            this.update = update;
+        }
+    }
+
+    public Membership(UUID selfID, int port, Array data) {
+        this.selfID = selfID;
+        this.port = port;
+        update(data);
+    }
+
+    public void addListener(Listener l) {
+        listeners.add(l);
+    }
+
+    public void start() {
+        timer = new Timer("SWIM", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                if (FaultHooks.isHalted(port)) return;
+                tick();
+            }
+        }, PERIOD, PERIOD);
+    }
+
+    public void stop() {
+        if (timer != null) timer.cancel();
+        listeners.clear();
+    }
+
+    /**
+     * update
+     * Follows the Array's membership as pushed by Query:
+     * new Nodes join alive, departed Nodes are forgotten
+     */
+    public synchronized void update(Array data) {
+        roles = data.getRoles();
+        Map<UUID, NodeDescriptor> current = new HashMap<>();
+        for (NodeDescriptor n : data.getNodeList()) {
+            if (n.hasID() && !n.is(selfID)) current.put(n.getID(), n);
+        }
+        members.keySet().retainAll(current.keySet());
+        gossip.keySet().removeIf(id -> !id.equals(selfID) && !current.containsKey(id));
+        for (Map.Entry<UUID, NodeDescriptor> e : current.entrySet()) members.putIfAbsent(e.getKey(), new Member(e.getValue()));
+        order.clear();
+        order.addAll(members.values());
+        Collections.shuffle(order);
+        next = 0;
+    }
+
+    public synchronized Map<UUID, State> getView() { //Every known member and its state, this member included
+        Map<UUID, State> view = new HashMap<>();
+        view.put(selfID, State.ALIVE);
+        for (Map.Entry<UUID, Member> e : members.entrySet()) view.put(e.getKey(), e.getValue().state);
+        return view;
+    }
+
+    public synchronized long[] drainRtts() { //Probe round trips since last drain (us)
+        long[] out = Arrays.copyOf(rtts, Math.min(rttCount, RTT_SAMPLES));
+        rttCount = 0;
+        return out;
+    }
+
+    /**
+     * onProbe
+     * Direct probe from another member; merge its news, ack with ours
+     */
+    public MemberUpdate[] onProbe(MemberUpdate[] updates) {
+        merge(updates);
+        return piggyback();
+    }
+
+    /**
+     * onProbeFor
+     * Indirect probe: ask target on another member's behalf.
+     * Returns our news if target acked, null if it did not
+     */
+    public MemberUpdate[] onProbeFor(UUID target, MemberUpdate[] updates) {
+        merge(updates);
+        Member m;
+        synchronized (this) {
+            m = members.get(target);
+        }
+        if (m == null) return null;
+        MemberUpdate[] ack = call(m, PROBE_TIMEOUT);
+        if (ack == null) return null;
+        merge(ack);
+        return piggyback();
+    }
+
+    private void tick() { //One protocol period
+        expireSuspects();
+        Member target = nextTarget();
+        if (target == null) return;
+        long start = System.currentTimeMillis();
+        MemberUpdate[] ack = call(target, Math.min(PROBE_TIMEOUT, pacer.timeout())); //Quiet network fails over to indirect probes sooner
+        if (ack != null) {
+            merge(ack);
+            return;
+        }
+
+        List<Future<MemberUpdate[]>> indirect = new ArrayList<>();
+        for (Member h : helpers(target)) {
+            MemberUpdate[] out = piggyback();
+            Future<MemberUpdate[]> f = send(h, () -> stub(h).probeFor(target.node.getID(), out));
+            if (f != null) indirect.add(f);
+        }
+        long deadline = start + PERIOD;
+        for (Future<MemberUpdate[]> f : indirect) {
+            try {
+                MemberUpdate[] r = f.get(Math.max(deadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS);
+                if (r != null) {
+                    merge(r);
+                    return;
+                }
+            } catch (Exception ignored) { //No ack from this helper; a blocked read ignores cancel, so it runs out on its own
+            }
+        }
+        suspect(target);
+    }
+
+    private MemberUpdate[] call(Member m, long timeout) { //Direct probe with timeout; null when no ack
+        MemberUpdate[] out = piggyback();
+        long start = System.nanoTime();
+        Future<MemberUpdate[]> f = send(m, () -> stub(m).probe(out));
+        if (f == null) return null;
+        try {
+            MemberUpdate[] ack = f.get(timeout, TimeUnit.MILLISECONDS);
+            long micros = (System.nanoTime() - start) / 1000;
+            synchronized (this) {
+                rtts[rttCount++ % RTT_SAMPLES] = micros;
+            }
+            pacer.sample(micros / 1000.0);
+            return ack;
+        } catch (Exception e) { //Not cancelled; m stays outstanding until the call returns
+            return null;
+        }
+    }
+
+    private <T> Future<T> send(Member m, Callable<T> call) { //Null while an earlier call to m is outstanding or no thread is free
+        UUID id = m.node.getID();
+        if (!outstanding.add(id)) return null;
+        try {
+            return probes.submit(() -> {
+                try {
+                    return call.call();
+                } finally {
+                    outstanding.remove(id);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            outstanding.remove(id);
+            return null;
+        }
+    }
+
+    private static InifNodeServer stub(Member m) throws Exception {
+        return Transports.get().lookup(m.node.getNodeIP(), m.node.getNodePort(), "AdminServer", InifNodeServer.class);
+    }
+
+    private synchronized Member nextTarget() { //Shuffled round-robin over members not known dead
+        for (int i = 0; i < order.size(); i++) {
+            if (next >= order.size()) {
+                Collections.shuffle(order);
+                next = 0;
+            }
+            Member m = order.get(next++);
+            if (m.state != State.DEAD && !outstanding.contains(m.node.getID())) return m; //A member still hung on our last probe waits out its suspicion
+        }
+        return null;
+    }
+
+    private synchronized List<Member> helpers(Member target) { //Random live members to probe target indirectly
+        List<Member> live = new ArrayList<>();
+        for (Member m : members.values()) if (m != target && m.state == State.ALIVE && !outstanding.contains(m.node.getID())) live.add(m);
+        Collections.shuffle(live);
+        return live.subList(0, Math.min(INDIRECT, live.size()));
+    }
+
+    private synchronized void suspect(Member m) {
+        if (m.state != State.ALIVE) return;
+        change(m, State.SUSPECT, m.incarnation);
+    }
+
+    private synchronized void expireSuspects() {
+        long timeout = (long) PERIOD * SUSPECT_MULT * Math.max(1, (int) Math.ceil(Math.log10(members.size() + 1)));
+        long now = System.currentTimeMillis();
+        for (Member m : members.values()) {
+            if (m.state == State.SUSPECT && now - m.suspectSince > timeout) change(m, State.DEAD, m.incarnation);
+        }
+    }
+
+    /**
+     * merge
+     * Applies news from another member. Higher incarnations
+     * win; suspicion beats alive at the same incarnation;
+     * dead is final. Suspicion of ourselves is refuted.
+     */
+    private synchronized void merge(MemberUpdate[] updates) {
+        if (updates == null) return;
+        for (MemberUpdate u : updates) {
+            if (u.getID().equals(selfID)) {
+                if (u.getState() != State.ALIVE && u.getIncarnation() >= incarnation) {
+                    incarnation = u.getIncarnation() + 1;
+                    gossip.put(selfID, new Gossip(new MemberUpdate(selfID, State.ALIVE, incarnation)));
+                    EventLog.warn(EventLog.Subsystem.NODE, "Refuting suspicion", u.getState() + " inc=" + u.getIncarnation());
+                }
+                continue;
+            }
+            Member m = members.get(u.getID());
+            if (m == null || m.state == State.DEAD) continue; //Unknown members come only from Query
+            switch (u.getState()) {
+                case ALIVE:
+                    if (u.getIncarnation() > m.incarnation) change(m, State.ALIVE, u.getIncarnation());
+                    break;
+                case SUSPECT:
+                    if (u.getIncarnation() > m.incarnation || (m.state == State.ALIVE && u.getIncarnation() == m.incarnation))
+                        change(m, State.SUSPECT, u.getIncarnation());
+                    break;
+                case DEAD:
+                    change(m, State.DEAD, u.getIncarnation());
+                    break;
+            }
+        }
+    }
+
+    private void change(Member m, State state, int inc) { //Caller holds lock
+        boolean changed = m.state != state;
+        m.state = state;
+        m.incarnation = inc;
+        if (state == State.SUSPECT && changed) m.suspectSince = System.currentTimeMillis();
+        UUID id = m.node.getID();
+        gossip.put(id, new Gossip(new MemberUpdate(id, state, inc)));
+        if (!changed) return;
+        int role = m.node.getRoleID();
+        EventLog.log(state == State.ALIVE ? EventLog.Level.INFO : EventLog.Level.WARN, EventLog.Subsystem.NODE,
+                "Member " + state, role >= 0 && role < roles.length ? roles[role] : null, id, null, -1);
+        for (Listener l : listeners) notices.execute(() -> l.onChange(m.node, state)); //Never call out under lock
+    }
+
+    private synchronized MemberUpdate[] piggyback() { //Least-sent news first; each item retired after log2(n) sends
+        if (gossip.isEmpty()) return NONE;
+        int limit = RETRANSMIT_MULT * (int) Math.ceil(Math.log(members.size() + 2) / Math.log(2));
+        List<Gossip> pending = new ArrayList<>(gossip.values());
+        pending.sort((a, b) -> Integer.compare(a.sent, b.sent));
+        int n = Math.min(MAX_PIGGYBACK, pending.size());
+        MemberUpdate[] out = new MemberUpdate[n];
+        for (int i = 0; i < n; i++) {
+            Gossip g = pending.get(i);
+            out[i] = g.update;
+            g.sent++;
+        }
+        Iterator<Gossip> it = gossip.values().iterator();
+        while (it.hasNext()) if (it.next().sent >= limit) it.remove();
+        return out;
+    }
+}
@@ -0,0 +1,421 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * NioTransport serves the Inif* interfaces over a
+ * framed binary protocol. Each endpoint is one selector
+ * thread; each peer is one connection that carries many
+ * concurrent calls, matched to replies by call ID.
+ * <p>
+ * Frame: int length, then body.
+ * Request body: long call, UTF interface, UTF name, short method, byte argc, args.
+ * Reply body: long call, byte status (0 value, 1 thrown), value.
+ */
+public class NioTransport implements Transport {
+    private static final int TIMEOUT = Integer.getInteger("mocha.nio.timeout", 30000); //ms a call may wait for its reply
+    private static final int CONNECT_TIMEOUT = Integer.getInteger("mocha.nio.connect", 5000); //ms a new connection may take
+    private static final int MAX_FRAME = Integer.getInteger("mocha.nio.frame", 64 * 1024 * 1024); //Largest frame accepted, bytes
+    private static final byte OK = 0, THROWN = 1;
+    private final Map<Integer, Server> servers = new ConcurrentHashMap<>(); //Local endpoints by port
+    private final Map<String, CompletableFuture<Peer>> peers = new ConcurrentHashMap<>(); //Connections by host:port; each connects under its own key
+    private final Map<String, Remote> proxies = new ConcurrentHashMap<>(); //host:port/name to proxy
+    private final ExecutorService workers = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "NioTransport-worker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public boolean listen(int port) {
+        try {
+            Server s = new Server(port);
+            servers.put(port, s);
+            s.start();
+            return true;
+        } catch (IOException e) { //Port taken
+            return false;
+        }
+    }
+
+    public void export(String name, Remote impl, int port) throws IOException {
+        Server s = servers.get(port);
+        if (s == null) throw new IOException("No endpoint listening on port " + port);
+        s.services.put(name, impl);
+    }
+
+    public void unexport(String name, Remote impl, int port) {
+        Server s = servers.get(port);
+        if (s != null) s.services.remove(name, impl);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Remote> T lookup(String host, int port, String name, Class<T> iface) {
+        String key = host + ":" + port + "/" + name;
+        return (T) proxies.computeIfAbsent(key, k -> (Remote) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) { //Identity methods answered locally
+                        if (method.getName().equals("equals")) return proxy == args[0];
+                        if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                        return "NioProxy[" + key + "]";
+                    }
+                    return peer(host, port).call(iface, name, method, args);
+                }));
+    }
+
+    private Peer peer(String host, int port) throws RemoteException { //First caller for a key connects; others for it wait, no one else does
+        String key = host + ":" + port;
+        while (true) {
+            CompletableFuture<Peer> f = peers.get(key);
+            if (f == null) {
+                CompletableFuture<Peer> mine = new CompletableFuture<>();
+                f = peers.putIfAbsent(key, mine);
+                if (f == null) {
+                    f = mine;
+                    try {
+                        mine.complete(new Peer(key, new InetSocketAddress(host, port)));
+                    } catch (IOException e) {
+                        peers.remove(key, mine); //Next call tries again
+                        mine.completeExceptionally(e);
+                    }
+                }
+            }
+            Peer p;
+            try {
+                p = f.join();
+            } catch (CompletionException e) {
+                throw new RemoteException("Connection refused: " + key, e.getCause());
+            }
+            if (p.open) return p;
+            peers.remove(key, f); //Closed since; reconnect
+        }
+    }
+
+    private static ByteBuffer frame(ByteArrayOutputStream body) { //Prefix body with its length
+        ByteBuffer b = ByteBuffer.allocate(4 + body.size());
+        b.putInt(body.size());
+        b.put(body.toByteArray());
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Server
+     * Selector loop for one local endpoint; calls are
+     * decoded here and run on the worker pool
+     */
+    private class Server extends Thread {
+        final Map<String, Remote> services = new ConcurrentHashMap<>();
+        final ServerSocketChannel channel;
+        final Selector selector;
+        final Queue<Conn> writable = new ConcurrentLinkedQueue<>(); //Connections with replies queued
+
+        Server(int port) throws IOException {
+            super("NioTransport-" + port);
+            setDaemon(true);
+            channel = ServerSocketChannel.open();
+            try {
+                channel.bind(new InetSocketAddress(port));
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        @Override
+        public void run() {
+            while (channel.isOpen()) {
+                try {
+                    selector.select();
+                    for (Conn c; (c = writable.poll()) != null; ) {
+                        if (c.key.isValid()) c.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            SocketChannel ch = channel.accept();
+                            if (ch == null) continue;
+                            ch.configureBlocking(false);
+                            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                            Conn c = new Conn(this, ch);
+                            c.key = ch.register(selector, SelectionKey.OP_READ, c);
+                        } else {
+                            Conn c = (Conn) key.attachment();
+                            try {
+                                if (key.isReadable()) c.read();
+                                if (key.isValid() && key.isWritable()) c.flush();
+                            } catch (IOException | RuntimeException e) { //One bad connection never stops the selector
+                                c.close();
+                            }
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("NioTransport selector failed! " + e);
+                }
+            }
+        }
+
+        /**
+         * dispatch
+         * Decode, invoke and reply; runs on worker pool. Every
+         * call that names its ID gets a reply: failures to
+         * decode, invoke or encode go back as a RemoteException
+         */
+        void dispatch(Conn c, byte[] body) {
+            if (body.length < 8) {
+                System.err.println("NioTransport bad request! No call ID");
+                return;
+            }
+            long call = ByteBuffer.wrap(body).getLong();
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, 8, body.length - 8));
+                Class<?> iface = Class.forName(in.readUTF());
+                Remote impl = services.get(in.readUTF());
+                Method method = WireFormat.methods(iface)[in.readShort()];
+                Object[] args = new Object[in.readByte()];
+                for (int i = 0; i < args.length; i++) args[i] = WireFormat.read(in);
+                if (impl == null) throw new RemoteException("Not bound");
+                Object result;
+                try {
+                    result = method.invoke(impl, args);
+                } catch (InvocationTargetException e) {
+                    c.send(reply(call, THROWN, e.getCause()));
+                    return;
+                }
+                c.send(reply(call, OK, result));
+            } catch (Exception e) {
+                c.send(reply(call, THROWN, e instanceof RemoteException ? e : new RemoteException("Call failed on server", e)));
+            }
+        }
+
+        private ByteBuffer reply(long call, byte status, Object value) { //Encoded reply; what cannot be encoded fails the call
+            try {
+                return encode(call, status, value);
+            } catch (Exception e) {
+                try {
+                    return encode(call, THROWN, new RemoteException("Reply not encodable: " + e));
+                } catch (IOException never) { //A message-only RemoteException always encodes
+                    throw new IllegalStateException(never);
+                }
+            }
+        }
+
+        private ByteBuffer encode(long call, byte status, Object value) throws IOException {
+            ByteArrayOutputStream reply = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(reply);
+            out.writeLong(call);
+            out.writeByte(status);
+            WireFormat.write(out, value);
+            return frame(reply);
+        }
+    }
+
+    private class Conn { //One accepted connection
+        final Server server;
+        final SocketChannel ch;
+        SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<>();
+
+        Conn(Server server, SocketChannel ch) {
+            this.server = server;
+            this.ch = ch;
+        }
+
+        void read() throws IOException { //Split buffered bytes into frames
+            if (ch.read(in) < 0) {
+                close();
+                return;
+            }
+            in.flip();
+            while (in.remaining() >= 4) {
+                int len = in.getInt(in.position());
+                if (len < 0 || len > MAX_FRAME) throw new IOException("Bad frame length: " + len); //Caller closes connection
+                if (in.remaining() < 4 + len) {
+                    if (4 + len > in.capacity()) { //Frame larger than buffer; grow it
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + len);
+                        bigger.put(in);
+                        in = bigger;
+                        return;
+                    }
+                    break;
+                }
+                in.getInt();
+                byte[] body = new byte[len];
+                in.get(body);
+                workers.execute(() -> server.dispatch(this, body));
+            }
+            in.compact();
+        }
+
+        void send(ByteBuffer frame) { //Queue reply; selector thread writes it
+            out.add(frame);
+            server.writable.add(this);
+            server.selector.wakeup();
+        }
+
+        void flush() throws IOException {
+            for (ByteBuffer b; (b = out.peek()) != null; out.poll()) {
+                ch.write(b);
+                if (b.hasRemaining()) return; //Socket full; wait for next OP_WRITE
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (!out.isEmpty()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Peer
+     * One outgoing connection; calls from any thread share it,
+     * and a reader thread hands each reply to its waiting caller
+     */
+    private class Peer {
+        final String key;
+        final SocketChannel ch;
+        final AtomicLong calls = new AtomicLong();
+        final Map<Long, CompletableFuture<Object[]>> pending = new ConcurrentHashMap<>();
+        volatile boolean open = true;
+
+        Peer(String key, InetSocketAddress address) throws IOException {
+            this.key = key;
+            ch = SocketChannel.open();
+            try {
+                ch.socket().connect(address, CONNECT_TIMEOUT); //An unreachable host fails this key only, and not forever
+            } catch (IOException e) {
+                ch.close();
+                throw e;
+            }
+            ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Thread reader = new Thread(this::readLoop, "NioTransport-peer-" + key);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        Object call(Class<?> iface, String name, Method method, Object[] args) throws Throwable {
+            long id = calls.incrementAndGet();
+            ByteBuffer frame;
+            try {
+                ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeLong(id);
+                out.writeUTF(iface.getName());
+                out.writeUTF(name);
+                out.writeShort(WireFormat.indexOf(iface, method));
+                out.writeByte(args == null ? 0 : args.length);
+                if (args != null) for (Object a : args) WireFormat.write(out, a);
+                frame = frame(body);
+            } catch (IOException | RuntimeException e) { //Connection is fine; only this call fails
+                throw new RemoteException("Unable to encode call: " + method.getName(), e);
+            }
+            CompletableFuture<Object[]> reply = new CompletableFuture<>();
+            pending.put(id, reply);
+            Object[] r;
+            try {
+                synchronized (this) {
+                    while (frame.hasRemaining()) ch.write(frame);
+                }
+                r = reply.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                fail(e);
+                throw new RemoteException("Connection lost: " + key, e);
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            } catch (TimeoutException e) {
+                throw new RemoteException("Call timed out: " + key + " " + method.getName());
+            } finally {
+                pending.remove(id);
+            }
+            if ((Byte) r[0] == OK) return r[1];
+            Throwable t = (Throwable) r[1]; //Thrown by the callee; the connection is fine
+            if (t instanceof RuntimeException || t instanceof Error || t instanceof RemoteException) throw t;
+            for (Class<?> declared : method.getExceptionTypes()) if (declared.isInstance(t)) throw t;
+            throw new RemoteException("Remote call failed", t);
+        }
+
+        private void readLoop() {
+            ByteBuffer len = ByteBuffer.allocate(4);
+            try {
+                while (open) {
+                    len.clear();
+                    readFully(len);
+                    int size = len.getInt(0);
+                    if (size < 0 || size > MAX_FRAME) throw new IOException("Bad frame length: " + size);
+                    ByteBuffer body = ByteBuffer.allocate(size);
+                    readFully(body);
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body.array()));
+                    long id = in.readLong();
+                    byte status = in.readByte();
+                    Object value = WireFormat.read(in);
+                    CompletableFuture<Object[]> reply = pending.get(id);
+                    if (reply != null) reply.complete(new Object[]{status, value});
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void readFully(ByteBuffer b) throws IOException {
+            while (b.hasRemaining()) {
+                if (ch.read(b) < 0) throw new IOException("Connection closed: " + key);
+            }
+        }
+
+        private void fail(IOException e) { //Drop connection; waiting calls fail, next call reconnects
+            if (!open) return;
+            open = false;
+            peers.computeIfPresent(key, (k, f) -> f.getNow(null) == this ? null : f);
+            try {
+                ch.close();
+            } catch (IOException ignored) {
+            }
+            for (CompletableFuture<Object[]> f : pending.values()) {
+                f.completeExceptionally(new RemoteException("Connection lost: " + key, e));
+            }
+        }
+    }
+}
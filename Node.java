@@ -1,14 +1,15 @@
 
 
 import java.io.Serializable;
-import java.net.Inet4Address;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * MochaRMI - Decentralized Java RMI Framework
@@ -24,10 +25,29 @@ public class Node implements InifNode, InifNodeServer, Serializable {
     private Shard shard; //Role
     private String queryIP, nodeIP; //OSI Level 3 Addresses
     private int nodePort = 1180, qport = 1180; //Port Addresses
-    transient private Timer timer = new Timer();
+    transient private Timer timer; //Core check, made on first use; copies of Node never start a thread
+    private transient HeartbeatPacer pacer; //Core check timing, hub mode
+    private transient int coreMisses; //Core check timeouts in a row
     private Query query;
     private Array arrayData; //Parent Array
     private UUID ID;
+    private int cores; //Capacity reported to Query
+    private long heapMB, rttMicros;
+    private TraceContext trace; //Trace of registration, null when unsampled
+    private transient Membership membership; //SWIM view of Array, null outside an Array or in hub mode
+    private transient Map<String, Checkpoint> checkpoints; //Local copies of role state by lineage and role, kept across Arrays
+    private transient Timer checkpointTimer; //Saves and ships state while this Node is its role's primary, pulls it otherwise
+    private transient TimerTask checkpointTask;
+    private transient Checkpoint checkpoint; //Local copy of the role's state while in an Array
+    private transient boolean checkpointWriter; //checkpointTask is the primary's writer
+    private long resumeToken = ThreadLocalRandom.current().nextLong(); //Secret sent at registration, proves identity on recycle
+    private static final int PORT_RANGE = Integer.getInteger("mocha.port.range", 20); //Ports tried above base port
+    private static final int SHARD_READY_TIMEOUT = 30000, READY_POLL = 50; //ms
+    private static final long BACKOFF_BASE = Long.getLong("mocha.register.backoff", 250); //ms; first retry waits up to this
+    private static final long BACKOFF_MAX = Long.getLong("mocha.register.backoff.max", 30000); //ms; retries never wait longer
+    private static final int CHECKPOINT_RATE = Integer.getInteger("mocha.checkpoint.rate", 2000); //ms between checkpoint saves
+    private static final int CHECKPOINT_KEEP = Integer.getInteger("mocha.checkpoint.keep", 4); //Local copies kept for warm restart
+    private static final int REGISTER_ATTEMPTS = Integer.getInteger("mocha.register.attempts", 10); //Tries before Node gives up
 
     public Node() {
         this.query = null;
@@ -36,6 +56,7 @@ public class Node implements InifNode, InifNodeServer, Serializable {
     }
 
     public Node(String queryIP, int qPort) {
+        long boot = System.currentTimeMillis();
         this.nodeIP = Query.getHostIP();
         this.query = null;
         this.arrayData = null;
@@ -43,6 +64,67 @@ public class Node implements InifNode, InifNodeServer, Serializable {
         createRegistry();
         startAdminServer();
         registerWithQuery(queryIP, qPort);
+        System.out.println("Node Booted! Time: " + (System.currentTimeMillis() - boot) + "ms");
+    }
+
+    /**
+     * startNodes
+     * Boots count Nodes on this host, each on its own port,
+     * and registers all of them with Query in a single call
+     */
+    public static List<Node> startNodes(String queryIP, int qPort, int count) {
+        long boot = System.currentTimeMillis();
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Node n = new Node();
+            n.nodeIP = Query.getHostIP();
+            try {
+                n.createRegistry();
+            } catch (IllegalStateException e) { //Later Nodes would find no port either
+                System.err.println("Started " + nodes.size() + " of " + count + " Nodes! " + e.getMessage());
+                break;
+            }
+            n.startAdminServer();
+            nodes.add(n);
+        }
+        if (nodes.isEmpty()) return nodes;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                InifQueryServer stub = Transports.get().lookup(queryIP, qPort, "QueryServer", InifQueryServer.class);
+                long start = System.nanoTime();
+                stub.ping();
+                long rtt = (System.nanoTime() - start) / 1000; //Shared by all Nodes of this host
+                List<NodeDescriptor> batch = new ArrayList<>();
+                long[] tokens = new long[nodes.size()]; //Descriptors never carry tokens over the wire
+                for (int i = 0; i < tokens.length; i++) {
+                    Node n = nodes.get(i);
+                    n.setCapacity(Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().maxMemory() / (1024 * 1024), rtt);
+                    batch.add(new NodeDescriptor(n.ID, n.nodeIP, n.nodePort, n.cores, n.heapMB, n.rttMicros, 0));
+                    tokens[i] = n.resumeToken;
+                }
+                UUID[] ids = stub.registerNodes(batch, tokens);
+                for (int i = 0; i < ids.length; i++) {
+                    Node n = nodes.get(i);
+                    n.ID = ids[i];
+                    n.queryIP = queryIP;
+                    n.qport = qPort;
+                }
+                break;
+            } catch (Exception e) {
+                if (attempt + 1 < REGISTER_ATTEMPTS) {
+                    EventLog.warn(EventLog.Subsystem.NODE, "Batch registration failed, retrying", e.toString());
+                    pause(backoff(attempt));
+                    continue;
+                }
+                System.err.println("Can't connect to QueryServer Server!");
+                System.err.println("IP Address: " + queryIP + "  Port: " + qPort);
+                System.err.println("Terminating Nodes");
+                e.printStackTrace();
+                System.exit(0);
+            }
+        }
+        System.out.println(count + " Nodes Booted! Time: " + (System.currentTimeMillis() - boot) + "ms");
+        return nodes;
     }
 
     public Node(Query q, Array a, UUID i, String nodeIP, int port, Shard shard) {
@@ -60,97 +142,395 @@ public class Node implements InifNode, InifNodeServer, Serializable {
         this.ID = i;
     }
 
-    private void createRegistry() { //Create local RMI Registry
-        try {
-            LocateRegistry.createRegistry(nodePort);
-        } catch (RemoteException e) { //Recursively call method until open port is found
-            if (nodePort > 1200) {
-                System.err.println("Unable to bind to a port!");
-                System.exit(0);
+    private void createRegistry() { //Open local endpoint on first open port; only this Node fails if none is free
+        nodePort = Integer.getInteger("mocha.port", nodePort);
+        for (int port = nodePort; port <= nodePort + PORT_RANGE; port++) {
+            if (Transports.get().listen(port)) { //Port taken, try next
+                nodePort = port;
+                return;
             }
-            nodePort++;
-            createRegistry();
         }
+        throw new IllegalStateException("Unable to bind to a port! Tried " + nodePort + "-" + (nodePort + PORT_RANGE)
+                + "; raise mocha.port.range");
     }
 
-    private void startAdminServer() { //Start Administrative RMI server
+    private void startAdminServer() { //Start Administrative RMI server; one export serves both interfaces
         try {
-            Node obj = new Node();// Create new instance of content for RMI to use
-            InifNodeServer stub = (InifNodeServer) UnicastRemoteObject.exportObject(obj, 0); //create stub
-            Registry registry = LocateRegistry.getRegistry(nodePort);//Denote nodePort to get registry from
-            registry.bind("AdminServer", stub); //Bind stub to registry
-            System.out.println("Admin Server (InifNodeServer) Ready");
+            Transports.get().export("AdminServer", this, nodePort); //Same object serves both names
+            Transports.get().export("AdminNode", this, nodePort);
+            System.out.println("Admin Server (InifNodeServer, InifNode) Ready");
         } catch (Exception e) {
             System.err.println("Server exception: " + e.toString());
             e.printStackTrace();
         }
+    }
 
-        try {
-            Node obj = new Node();// Create new instance of content for RMI to use
-            InifNode stub = (InifNode) UnicastRemoteObject.exportObject(obj, 0); //create stub
-            Registry registry = LocateRegistry.getRegistry(nodePort);//Denote nodePort to get registry from
-            registry.bind("AdminNode", stub); //Bind stub to registry
-            System.out.println("Admin Server (InifNode) Ready");
-        } catch (Exception e) {
-            System.err.println("Server exception: " + e.toString());
-            e.printStackTrace();
+    private void registerWithQuery(String queryIP, int port) { //Register with remote Query, backing off while it is down or busy
+        for (int attempt = 0; ; attempt++) {
+            try {
+                register(queryIP, port);
+                return;
+            } catch (Exception e) {
+                if (attempt + 1 < REGISTER_ATTEMPTS) {
+                    EventLog.warn(EventLog.Subsystem.NODE, "Registration failed, retrying", e.toString());
+                    pause(backoff(attempt));
+                    continue;
+                }
+                System.err.println("Can't connect to QueryServer Server!");
+                System.err.println("IP Address: " + queryIP + "  Port: " + port);
+                System.err.println("Terminating Node");
+                e.printStackTrace();
+                System.exit(0);
+            }
         }
     }
 
-    private void registerWithQuery(String queryIP, int port) { //Register with remote Query
+    private void register(String queryIP, int port) throws Exception { //One registration attempt
+        Tracer.Span span = Tracer.startRoot("node.register");
+        InifQueryServer stub = Transports.get().lookup(queryIP, port, "QueryServer", InifQueryServer.class);
+        long start = System.nanoTime();
+        stub.ping();
+        rttMicros = (System.nanoTime() - start) / 1000; //One round trip to Query
+        cores = Runtime.getRuntime().availableProcessors();
+        heapMB = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        Node copy = new Node(query, null, ID, nodeIP, nodePort, null); //Plain copy; this Node is exported
+        copy.setCapacity(cores, heapMB, rttMicros);
+        copy.setTrace(span.context());
+        copy.setResumeToken(resumeToken);
+        Node n = stub.registerNode(copy);
+        span.end();
+        this.query = n.query;
+        this.ID = n.ID;
+        this.queryIP = queryIP;
+        this.qport = port;
+        System.out.println("Successfully Registered with QueryServer! Port: " + nodePort);
+        System.out.println();
+    }
+
+    static long backoff(int attempt) { //Full jitter: uniform up to BACKOFF_BASE * 2^attempt, capped
+        long ceiling = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static void pause(long ms) {
         try {
-            Registry registry = LocateRegistry.getRegistry(queryIP, port); //IP Address of RMI Server, nodePort of RMIRegistry
-            InifQueryServer stub = (InifQueryServer) registry.lookup("QueryServer"); //Name of RMI Server in registry
-            Node n = stub.registerNode(new Node(queryIP,port));
-            this.query = n.query;
-            this.ID = n.ID;
-            System.out.println("Successfully Registered with QueryServer! Port: " + nodePort);
-            System.out.println();
-        } catch (Exception e) {
-            System.err.println("Can't connect to QueryServer Server!");
-            System.err.println("IP Address: " + queryIP + "  Port: " + port);
-            System.err.println("Terminating Node");
-            e.printStackTrace();
-            System.exit(0);
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    public void startService() throws RemoteException { //Start local Shard service
+    public void startService() throws RemoteException { //Start local Shard service; returns at once
+        FaultHooks.check(nodePort);
         verifyNodePort();
         System.out.println("Current Port: " + nodePort);
         System.out.println("Service Started!");
-        System.out.print("Core IP: " + arrayData.getShardMap().get("Core").getNodeIP());
-        System.out.println(" Port: " + arrayData.getShardMap().get("Core").getNodePort());
+        System.out.print("Core IP: " + arrayData.getCore().getNodeIP());
+        System.out.println(" Port: " + arrayData.getCore().getNodePort());
         System.out.println("Role of this server: " + shard.getRole());
         System.out.println();
-        shard.startShard(arrayData, this);
-        if (!shard.getRole().equals("Core")) { //Check-in with Core
+        membership = Membership.ENABLED ? new Membership(ID, nodePort, arrayData) : null; //Started once Shard is ready
+        Tracer.Span span = Tracer.start("startService", arrayData.getTrace()).tag(shard.getRole());
+        TraceContext ctx = span.context();
+        new Thread(() -> runShard(ctx)).start(); //Shard startup must not hold the caller's RMI call
+        span.end();
+    }
+
+    private void runShard(TraceContext ctx) { //Run Shard lifecycle and report readiness to Query
+        Array data = arrayData;
+        Shard s = shard;
+        Checkpoint cp = null;
+        long start = System.currentTimeMillis();
+        try {
+            Tracer.Span span = Tracer.start("initShard", ctx);
+            s.initShard(data, this);
+            span.end();
+            if (s.getCheckpointSize() > 0) {
+                span = Tracer.start("restoreCheckpoint", ctx);
+                cp = restoreCheckpoint(data, s);
+                span.end();
+            }
+            span = Tracer.start("startShard", ctx);
+            s.startShard(data, this);
+            span.end();
+            span = Tracer.start("awaitReady", ctx);
+            while (!s.isReady()) {
+                if (System.currentTimeMillis() - start > SHARD_READY_TIMEOUT)
+                    throw new IllegalStateException("Shard not ready after " + SHARD_READY_TIMEOUT + "ms");
+                Thread.sleep(READY_POLL);
+            }
+            span.end();
+        } catch (Exception e) {
+            System.err.println("Shard failed to start! Role: " + s.getRole());
+            e.printStackTrace();
+            try {
+                queryStub(data).shardFailed(data.getArrayID(), s.getRole(), e.toString());
+            } catch (Exception e1) {
+                System.err.println("Unable to inform QueryServer of Shard failure!");
+            }
+            return;
+        }
+        Membership m = membership;
+        if (m != null) { //Gossip detects failures; lose the Core, leave the Array
+            m.addListener((member, state) -> {
+                Array current = arrayData;
+                if (state == Membership.State.DEAD && current != null && "Core".equals(current.getRole(member))) coreLost();
+            });
+            m.start();
+        } else if (!s.getRole().equals("Core")) { //Check-in with Core
             startCoreCheck();
         }
+        if (cp != null) startCheckpoints(data, s, cp);
+        try {
+            queryStub(data).shardReady(data.getArrayID(), s.getRole(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            System.err.println("Unable to inform QueryServer of Shard readiness!");
+        }
+    }
+
+    /**
+     * restoreCheckpoint
+     * Brings the local copy of the role's state up to the
+     * version Query holds; only pages changed since this
+     * Node last held the role are fetched. The Shard then
+     * resumes from it instead of starting cold.
+     */
+    private Checkpoint restoreCheckpoint(Array data, Shard s) throws Exception {
+        long start = System.currentTimeMillis();
+        Checkpoint cp = localCheckpoint(data.getStateID(), s.getRole(), s.getCheckpointSize());
+        synchronized (cp) {
+            CheckpointDelta d = queryStub(data).fetchCheckpoint(ID, data.getStateID(), s.getRole(), cp.getVersion());
+            if (d != null && d.getSize() == cp.getSize()) cp.apply(d);
+            cp.rehash(); //Content now matches Query; next save ships only new changes
+            if (cp.getVersion() > 0) {
+                s.restoreCheckpoint(cp.state(), data.getEpoch());
+                EventLog.info(EventLog.Subsystem.NODE, "Shard Restored", s.getRole() + " epoch=" + data.getEpoch() + " pages="
+                        + (d == null ? 0 : d.getPageCount()) + " time=" + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        return cp;
+    }
+
+    private synchronized Checkpoint localCheckpoint(UUID stateID, String role, int size) throws Exception {
+        if (checkpoints == null) {
+            checkpoints = new LinkedHashMap<String, Checkpoint>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Checkpoint> e) { //Least recently used copy is dropped, with its file
+                    if (size() <= CHECKPOINT_KEEP) return false;
+                    retire(e.getValue());
+                    return true;
+                }
+            };
+        }
+        String key = stateID + "/" + role;
+        Checkpoint cp = checkpoints.get(key);
+        if (cp == null || cp.getSize() != size) {
+            if (cp != null) retire(cp); //Same file name; closed before it is mapped again
+            cp = new Checkpoint("node-" + nodePort + "-" + stateID + "-" + role, size);
+            checkpoints.put(key, cp);
+        }
+        return cp;
+    }
 
+    private synchronized void retire(Checkpoint cp) { //Close a local copy; the one in use is closed when checkpoints stop
+        if (cp == checkpoint) return;
+        synchronized (cp) { //Waits out a save or fetch in progress
+            cp.close();
+        }
+    }
+
+    /**
+     * startCheckpoints
+     * The role's primary saves state and ships changed pages
+     * to Query; other replicas pull them, so whichever takes
+     * over the role later restores only recent changes.
+     */
+    private synchronized void startCheckpoints(Array data, Shard s, Checkpoint cp) {
+        checkpoint = cp;
+        checkpointTimer = new Timer(true);
+        Array current = arrayData; //May have been resized while the Shard started
+        scheduleCheckpoints(current != null ? current : data, s);
+    }
 
+    /**
+     * scheduleCheckpoints
+     * Runs the writer if this Node is its role's primary in
+     * data, the reader otherwise. Called again on every
+     * topology change, since growing or draining an Array
+     * can move the primary.
+     */
+    private synchronized void scheduleCheckpoints(Array data, Shard s) {
+        Checkpoint cp = checkpoint;
+        if (cp == null || checkpointTimer == null) return; //Not checkpointing
+        NodeDescriptor primary = data.getPrimary(s.getRole());
+        boolean writer = primary != null && primary.is(ID);
+        if (checkpointTask != null && writer == checkpointWriter) return;
+        boolean promoted = checkpointTask != null; //Was a reader; its copy may trail the old primary
+        if (checkpointTask != null) checkpointTask.cancel();
+        checkpointWriter = writer;
+        checkpointTask = writer ? writerTask(data, s, cp, promoted) : readerTask(data, s, cp);
+        checkpointTimer.scheduleAtFixedRate(checkpointTask, CHECKPOINT_RATE, CHECKPOINT_RATE);
+    }
+
+    private synchronized void stopCheckpoints() {
+        Checkpoint cp = checkpoint;
+        if (checkpointTimer != null) checkpointTimer.cancel();
+        checkpointTimer = null;
+        checkpointTask = null;
+        checkpoint = null;
+        if (cp != null && checkpoints != null && !checkpoints.containsValue(cp)) retire(cp); //Dropped from the map while in use
+    }
+
+    private TimerTask writerTask(Array data, Shard s, Checkpoint cp, boolean promoted) {
+        return new TimerTask() {
+            private boolean synced = !promoted; //Copy matches Query and is hashed as shipped
+
+            @Override
+            public void run() {
+                if (FaultHooks.isHalted(nodePort)) return;
+                synchronized (cp) {
+                    if (cp.isClosed()) return; //Checkpoints stopped while this run waited
+                    if (!synced) { //Catch up with the old primary's last pages before shipping only new changes
+                        try {
+                            CheckpointDelta d = queryStub(data).fetchCheckpoint(ID, data.getStateID(), s.getRole(), cp.getVersion());
+                            if (d != null && d.getSize() == cp.getSize() && d.getVersion() > cp.getVersion()) cp.apply(d);
+                        } catch (Exception e) {
+                            EventLog.warn(EventLog.Subsystem.NODE, "Unable to fetch checkpoint", e.toString());
+                            return;
+                        }
+                        cp.rehash();
+                        synced = true;
+                    }
+                    long known = cp.getVersion();
+                    cp.setVersion(0); //Local copy is ahead of Query until pages are accepted
+                    s.saveCheckpoint(cp.state());
+                    CheckpointDelta d = cp.diff(data.getStateID(), s.getRole(), data.getEpoch());
+                    if (d.getPageCount() == 0) {
+                        cp.setVersion(known);
+                        return;
+                    }
+                    try {
+                        long version = queryStub(data).pushCheckpoint(ID, d);
+                        if (version < 0) {
+                            EventLog.warn(EventLog.Subsystem.NODE, "Checkpoint refused; Array replaced", s.getRole());
+                            cancel();
+                            return;
+                        }
+                        cp.commit(d, version);
+                    } catch (Exception e) {
+                        EventLog.warn(EventLog.Subsystem.NODE, "Unable to ship checkpoint", e.toString());
+                    }
+                }
+            }
+        };
+    }
+
+    private TimerTask readerTask(Array data, Shard s, Checkpoint cp) {
+        return new TimerTask() {
+            @Override
+            public void run() {
+                if (FaultHooks.isHalted(nodePort)) return;
+                synchronized (cp) {
+                    if (cp.isClosed()) return; //Checkpoints stopped while this run waited
+                    try {
+                        CheckpointDelta d = queryStub(data).fetchCheckpoint(ID, data.getStateID(), s.getRole(), cp.getVersion());
+                        if (d != null && d.getSize() == cp.getSize() && d.getVersion() > cp.getVersion()) cp.apply(d);
+                    } catch (Exception e) {
+                        EventLog.warn(EventLog.Subsystem.NODE, "Unable to fetch checkpoint", e.toString());
+                    }
+                }
+            }
+        };
+    }
+
+    private static InifQueryServer queryStub(Array data) throws Exception { //Locate Query server of Array
+        return Transports.get().lookup(data.getQueryIP(), data.getQueryPort(), "QueryServer", InifQueryServer.class);
+    }
+
+    public void updateArray(Array data) throws RemoteException { //Array resized while running
+        FaultHooks.check(nodePort);
+        this.arrayData = data;
+        if (membership != null) membership.update(data);
+        Shard s = shard;
+        if (s != null) {
+            s.onTopologyChange(data);
+            scheduleCheckpoints(data, s); //Primary may have moved
+        }
+    }
+
+    public void drainNode(String reason) throws RemoteException { //Returns at once; drain runs on its own thread
+        Shard s = shard;
+        new Thread(() -> {
+            try {
+                if (s != null) s.drainShard();
+                TimerTask t = checkpointTask;
+                if (t != null) t.run(); //Final sync before leaving
+                unassignNode(reason);
+            } catch (Exception e) {
+                System.err.println("Node drain failed! Reason: " + e);
+            }
+        }).start();
     }
 
     public void unassignNode(String reason) throws RemoteException { //Remove Node from Array
-        timer.cancel();
+        FaultHooks.check(nodePort);
+        if (timer != null) timer.cancel();
+        if (pacer != null) pacer.stop();
+        stopCheckpoints();
+        if (membership != null) membership.stop();
+        membership = null;
+        stopShard();
         verifyNodePort();
 
         System.err.println("Node Unassigned! Reason: " + reason);
-        System.out.println("Current Port: " + nodePort);
-        System.out.println("Query IP:" + queryIP + " Port:" + qport);
-        registerWithQuery(queryIP, qport);
-        arrayData = null;
+        arrayData = null; //Cleared first; Query may reassign this Node as soon as it is recycled
         shard = null;
+        new Thread(this::recycle).start(); //Caller may be dissolving a whole Array; do not hold it through backoff
+    }
 
+    /**
+     * recycle
+     * Rejoins the pool keeping registry, exports and ID; full
+     * registration only if Query has no record. Every member
+     * of a dissolved Array gets here at once, so each waits a
+     * jittered, growing delay before each try.
+     */
+    private void recycle() {
+        for (int attempt = 0; attempt < REGISTER_ATTEMPTS; attempt++) {
+            pause(backoff(attempt));
+            if (arrayData != null) return; //Reassigned meanwhile
+            try {
+                long start = System.nanoTime();
+                InifQueryServer stub = Transports.get().lookup(queryIP, qport, "QueryServer", InifQueryServer.class);
+                if (ID != null && stub.nodeAvailable(ID, resumeToken)) {
+                    EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.NODE, "Node Recycled", null, ID, null, (System.nanoTime() - start) / 1000);
+                    return;
+                }
+                break; //Query has no record of this Node
+            } catch (Exception e) {
+                EventLog.warn(EventLog.Subsystem.NODE, "Recycle failed, retrying", e.toString());
+            }
+        }
+        System.out.println("Query IP:" + queryIP + " Port:" + qport);
+        registerWithQuery(queryIP, qport);
     }
 
     @Override
     public void terminateNode(String reason) throws RemoteException { //End Node Thread
-        //Run Shard Cleanup methods
+        stopShard(); //Run Shard Cleanup methods
         System.err.println("Node to Terminate: " + reason);
         System.exit(1);
     }
 
+    private void stopShard() {
+        if (shard == null) return;
+        try {
+            shard.stopShard();
+        } catch (Exception e) {
+            System.err.println("Shard failed to stop cleanly! Role: " + shard.getRole());
+        }
+    }
+
     public void setShard(Shard shard) {
         this.shard = shard;
     }
@@ -171,6 +551,40 @@ public class Node implements InifNode, InifNodeServer, Serializable {
         return nodePort;
     }
 
+    public void setCapacity(int cores, long heapMB, long rttMicros) {
+        this.cores = cores;
+        this.heapMB = heapMB;
+        this.rttMicros = rttMicros;
+    }
+
+    void setResumeToken(long resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+
+    long getResumeToken() {
+        return resumeToken;
+    }
+
+    public void setTrace(TraceContext trace) { //Trace this Node travels under
+        this.trace = trace;
+    }
+
+    public TraceContext getTrace() {
+        return trace;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public long getHeapMB() {
+        return heapMB;
+    }
+
+    public long getRttMicros() {
+        return rttMicros;
+    }
+
     public void setArrayData(Array data) {
         this.arrayData = data;
     }
@@ -179,7 +593,10 @@ public class Node implements InifNode, InifNodeServer, Serializable {
     private void startCoreCheck() {
         System.out.println("Core Integrity Check Started!");
         try {
-            timer.schedule(timerTask(), 7000, 4000); //Task, delay, update speed
+            if (timer == null) timer = new Timer();
+            pacer = new HeartbeatPacer(4000);
+            coreMisses = 0;
+            pacer.schedule(timer, 7000, this::checkCore); //Interval adapts from 4000ms
         } catch (IllegalStateException e) {
             System.out.println("Resetting Timer!");
             timer = new Timer();
@@ -187,63 +604,91 @@ public class Node implements InifNode, InifNodeServer, Serializable {
         }
     }
 
-    private TimerTask timerTask() { //Timer for core check
-        return new TimerTask() {
-
-            @Override
-            public void run() {
-                try {
-                    Registry registry = LocateRegistry.getRegistry(arrayData.getShardMap().get("Core").getNodeIP(), arrayData.getShardMap().get("Core").getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                    registry.lookup("AdminServer");
-                } catch (Exception e) {
-                    System.out.println("Core Timed Out!");
-                    try {
-//                        timer.cancel();
-                        reportQryErr();
-                        unassignNode("Core timeout!");
+    private void checkCore() { //One heartbeat to the Core
+        Array data = arrayData;
+        if (FaultHooks.isHalted(nodePort) || data == null) return;
+        pacer.setMembers(data.getNodeList().size()); //Every member checks the same Core
+        try {
+            NodeDescriptor core = data.getCore();
+            long rtt = pacer.beat(core, () -> Transports.get().lookup(core.getNodeIP(), core.getNodePort(), "AdminServer", InifNodeServer.class).ping());
+            if (rtt >= 0) coreMisses = 0;
+            else if (++coreMisses >= HeartbeatPacer.MISSES) coreLost();
+        } catch (Exception e) {
+            coreLost();
+        }
+    }
 
-                    } catch (RemoteException e1) {
-                        e1.printStackTrace();
-                    }
-                }
+    private void coreLost() { //Core failed; Query confirms it and dissolves the Array, this Node included
+        Array data = arrayData;
+        if (data == null) return;
+        EventLog.log(EventLog.Level.ERROR, EventLog.Subsystem.NODE, "Core Timed Out", null, ID, data.getArrayID(), -1);
+        FaultHooks.event("detect", nodePort);
+        Boolean dissolved = reportQryErr(data);
+        if (dissolved == null) { //Query unreachable; leave on our own
+            try {
+                unassignNode("Core timeout!");
+            } catch (RemoteException e1) {
+                e1.printStackTrace();
             }
-        };
+        } else if (!dissolved) {
+            coreMisses = 0; //Core answers Query; stay in the Array
+        }
     }
 
     private void verifyNodePort() {
         try {
-            int certPort = arrayData.getShardMap().get(this.shard.getRole()).getNodePort();
+            int certPort = nodePort;
+            for (NodeDescriptor n : arrayData.getReplicas(this.shard.getRole())) { //Find this replica's entry
+                if (n.is(ID)) certPort = n.getNodePort();
+            }
             if (nodePort != certPort) {
                 nodePort = certPort;
-                System.out.println("Node Port Reset! Port: " + certPort);
+                EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.NODE, "Node Port Reset", String.valueOf(certPort), ID, null, -1);
             } else {
-                System.out.println("Node Port Verified!");
+                EventLog.log(EventLog.Level.DEBUG, EventLog.Subsystem.NODE, "Node Port Verified", null, ID, null, -1);
             }
         } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("Node Port Verification Failed!");
+            EventLog.log(EventLog.Level.WARN, EventLog.Subsystem.NODE, "Node Port Verification Failed", e.toString(), ID, null, -1);
         }
 
     }
 
-    private void reportQryErr() { // Report failure of Core Node to Query Server
+    private Boolean reportQryErr(Array data) { // Report failure of Core Node to Query Server; null if Query was not reached
         try {
-            Node core = arrayData.getShardMap().get("Core");
-            Registry queryRegistry = LocateRegistry.getRegistry(arrayData.getQueryIP(), arrayData.getQueryPort()); //IP Address of RMI Server, port of RMIRegistry
-            InifQueryServer queryStub = (InifQueryServer) queryRegistry.lookup("QueryServer");
+            NodeDescriptor core = data.getCore();
+            InifQueryServer queryStub = Transports.get().lookup(data.getQueryIP(), data.getQueryPort(), "QueryServer", InifQueryServer.class);
             queryStub.queryErrState("Reported Core Timeout! \n " +
                     "Core IP:" + core.getNodeIP() + " Port:" + core.getNodePort() +
-                    "\n Reporting Node IP:" + Inet4Address.getLocalHost().getHostAddress() + " Port:" + getNodePort());
+                    "\n Reporting Node IP:" + nodeIP + " Port:" + getNodePort());
+            return queryStub.coreLost(data.getArrayID(), ID); //No Core is left to dissolve it; Query does once it agrees
 
         } catch (Exception e) {
             System.err.println("Unable to inform QueryServer of Core Timeout!");
+            return null;
         }
     }
 
     public boolean ping() throws RemoteException {
+        FaultHooks.check(nodePort);
         return true;
     }
 
+    public MemberUpdate[] probe(MemberUpdate[] updates) throws RemoteException {
+        FaultHooks.check(nodePort);
+        Membership m = membership;
+        return m == null ? new MemberUpdate[0] : m.onProbe(updates); //Not yet gossiping; ack only
+    }
+
+    public MemberUpdate[] probeFor(UUID target, MemberUpdate[] updates) throws RemoteException {
+        FaultHooks.check(nodePort);
+        Membership m = membership;
+        return m == null ? null : m.onProbeFor(target, updates);
+    }
+
+    Membership getMembership() { //Local SWIM view, for the Core hosted on this Node
+        return membership;
+    }
+
     public UUID getID() throws RemoteException {
         return ID;
     }
@@ -0,0 +1,134 @@
+
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * NodeDescriptor is the compact, immutable record Query
+ * keeps of a Node, and the form Nodes travel in inside
+ * an Array: ID as two longs, IPv4 address as an int,
+ * port, role as an index into the Array's role table,
+ * and capacity. No Query, Array, Shard or Timer rides
+ * along with it. The resume token is never serialized:
+ * Query holds it in its own records, and descriptors in
+ * Arrays or replies cannot be used to recycle a Node.
+ */
+public final class NodeDescriptor implements Serializable {
+    public static final int NO_ROLE = -1; //Node is in the pool
+    private final long idHi, idLo; //0,0 before Query assigns an ID
+    private final int ip; //IPv4, packed big-endian
+    private final int port;
+    private final int roleID;
+    private final int cores, heapMB, rttMicros; //Capacity reported at registration
+    private final transient long resumeToken; //Proves identity when Node is recycled; Query side only
+
+    public NodeDescriptor(UUID id, String nodeIP, int nodePort, int cores, long heapMB, long rttMicros, long resumeToken) {
+        this(id == null ? 0 : id.getMostSignificantBits(), id == null ? 0 : id.getLeastSignificantBits(), packIPv4(nodeIP),
+                nodePort, NO_ROLE, cores, (int) Math.min(heapMB, Integer.MAX_VALUE), (int) Math.min(rttMicros, Integer.MAX_VALUE), resumeToken);
+    }
+
+    private NodeDescriptor(long idHi, long idLo, int ip, int port, int roleID, int cores, int heapMB, int rttMicros, long resumeToken) {
+        this.idHi = idHi;
+        this.idLo = idLo;
+        this.ip = ip;
+        this.port = port;
+        this.roleID = roleID;
+        this.cores = cores;
+        this.heapMB = heapMB;
+        this.rttMicros = rttMicros;
+        this.resumeToken = resumeToken;
+    }
+
+    public NodeDescriptor withID(UUID id) {
+        return new NodeDescriptor(id.getMostSignificantBits(), id.getLeastSignificantBits(), ip, port, roleID, cores, heapMB, rttMicros, resumeToken);
+    }
+
+    public NodeDescriptor withResumeToken(long resumeToken) { //Token sent beside the descriptor at registration
+        return new NodeDescriptor(idHi, idLo, ip, port, roleID, cores, heapMB, rttMicros, resumeToken);
+    }
+
+    public NodeDescriptor withRole(int roleID) {
+        return new NodeDescriptor(idHi, idLo, ip, port, roleID, cores, heapMB, rttMicros, resumeToken);
+    }
+
+    public boolean hasID() {
+        return idHi != 0 || idLo != 0;
+    }
+
+    public UUID getID() { //Allocates; compare with is() on hot paths
+        return hasID() ? new UUID(idHi, idLo) : null;
+    }
+
+    public boolean is(UUID id) {
+        return id != null && id.getMostSignificantBits() == idHi && id.getLeastSignificantBits() == idLo;
+    }
+
+    public long getIdHi() {
+        return idHi;
+    }
+
+    public long getIdLo() {
+        return idLo;
+    }
+
+    public int getIP() {
+        return ip;
+    }
+
+    public String getNodeIP() {
+        return formatIPv4(ip);
+    }
+
+    public int getNodePort() {
+        return port;
+    }
+
+    public int getRoleID() {
+        return roleID;
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public long getHeapMB() {
+        return heapMB;
+    }
+
+    public long getRttMicros() {
+        return rttMicros;
+    }
+
+    public long getResumeToken() {
+        return resumeToken;
+    }
+
+    static int packIPv4(String address) { //Dotted address to int; host names are resolved once, here
+        try {
+            byte[] b = InetAddress.getByName(address).getAddress();
+            if (b.length != 4) throw new IllegalArgumentException("Not an IPv4 address: " + address);
+            return (b[0] & 0xff) << 24 | (b[1] & 0xff) << 16 | (b[2] & 0xff) << 8 | (b[3] & 0xff);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Unknown host: " + address);
+        }
+    }
+
+    static String formatIPv4(int ip) {
+        return (ip >>> 24) + "." + ((ip >>> 16) & 0xff) + "." + ((ip >>> 8) & 0xff) + "." + (ip & 0xff);
+    }
+
+    @Override
+    public boolean equals(Object o) { //Same Node if IDs match
+        return o instanceof NodeDescriptor && ((NodeDescriptor) o).idHi == idHi && ((NodeDescriptor) o).idLo == idLo;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(idHi ^ idLo);
+    }
+}
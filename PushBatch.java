@@ -0,0 +1,48 @@
+
+import java.io.Serializable;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * PushBatch carries one delivery of pushed updates to a
+ * Client: the latest payload of each topic that changed
+ * in the window, as parallel arrays. Dropped counts the
+ * updates lost to a full buffer since the last delivery;
+ * a Client seeing it non-zero should resync.
+ */
+public class PushBatch implements Serializable {
+    private final String[] topics;
+    private final byte[][] payloads;
+    private final int dropped;
+    private int size = 0;
+
+    public PushBatch(int capacity, int dropped) {
+        topics = new String[capacity];
+        payloads = new byte[capacity][];
+        this.dropped = dropped;
+    }
+
+    public void add(String topic, byte[] payload) {
+        topics[size] = topic;
+        payloads[size] = payload;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getTopic(int i) {
+        return topics[i];
+    }
+
+    public byte[] getPayload(int i) {
+        return payloads[i];
+    }
+
+    public int getDropped() {
+        return dropped;
+    }
+}
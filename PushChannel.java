@@ -0,0 +1,225 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * PushChannel delivers updates from a Core to the Clients
+ * that registered a callback. Broadcasts cost one map write
+ * however many Clients there are: each Client remembers the
+ * last version it was sent, and once per window is sent the
+ * latest payload of every topic newer than that, together
+ * with updates addressed to it alone, in one call. A Client
+ * still receiving its last batch is skipped, so its updates
+ * merge; direct updates beyond the buffer drop the oldest.
+ * A delivery not answered within the timeout counts as a
+ * failure, so stalled Clients hold a sender only briefly
+ * and are dropped after a few tries. A call given up on
+ * may still hang its thread, so calls run on a bounded
+ * pool and a Client is sent nothing more until its last
+ * call returns; one hung past every try is dropped.
+ */
+public class PushChannel {
+    public static final String REDIRECT = "mocha.redirect"; //Payload "ip:port" of the Core a migrated Client now belongs to
+    private static final int WINDOW = Integer.getInteger("mocha.push.window", 50); //ms updates are gathered per Client
+    private static final int BUFFER = Integer.getInteger("mocha.push.buffer", 64); //Direct updates held per Client
+    private static final int MAX_FAILURES = Integer.getInteger("mocha.push.failures", 3); //Failed deliveries in a row before a Client is dropped
+    private static final int TIMEOUT = Integer.getInteger("mocha.push.timeout", 1000); //ms a delivery may take before it counts as failed
+    private static final int MAX_CALLS = Integer.getInteger("mocha.push.calls", 64); //Delivery calls outstanding at once, per JVM
+    private static final ExecutorService calls = new ThreadPoolExecutor(0, MAX_CALLS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> { //Delivery calls, so senders can give up on them
+        Thread t = new Thread(r, "Push-call");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService senders = Executors.newFixedThreadPool(Integer.getInteger("mocha.push.threads", 8), r -> {
+        Thread t = new Thread(r, "Push-send");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final int port; //Core port, for fault hooks
+    private final Map<Long, Subscriber> subscribers = new ConcurrentHashMap<>(); //By session key
+    private final Map<String, Update> latest = new ConcurrentHashMap<>(); //Latest broadcast of each topic
+    private long version = 0; //Stamped on each broadcast; guarded by this
+    private Timer timer;
+
+    public PushChannel(int port) {
+        this.port = port;
+    }
+
+    public void start() {
+        timer = new Timer("Push-flush", true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                if (!FaultHooks.isHalted(port)) flush();
+            }
+        }, WINDOW, WINDOW);
+    }
+
+    public void stop() {
+        if (timer != null) timer.cancel();
+        subscribers.clear();
+    }
+
+    public int size() {
+        return subscribers.size();
+    }
+
+    public void subscribe(long key, String ip, int callbackPort, String[] topics) { //Client starts with current broadcasts
+        subscribers.put(key, new Subscriber(ip, callbackPort, topics));
+    }
+
+    public void unsubscribe(long key) {
+        subscribers.remove(key);
+    }
+
+    public synchronized void publish(String topic, byte[] payload) { //To every subscribed Client
+        latest.put(topic, new Update(payload, ++version));
+    }
+
+    public void publishTo(long key, String topic, byte[] payload) { //To one Client; replaces its pending update of topic
+        Subscriber s = subscribers.get(key);
+        if (s != null) s.offer(topic, payload);
+    }
+
+    public void close(long key, String topic, byte[] payload) { //Last update to a Client, then drop it
+        Subscriber s = subscribers.get(key);
+        if (s == null) return;
+        s.offer(topic, payload);
+        s.closing = true;
+    }
+
+    private void flush() { //Start a delivery for each idle Client with news
+        long current, now = System.currentTimeMillis();
+        synchronized (this) { //Every broadcast up to current is in the map
+            current = version;
+        }
+        for (Map.Entry<Long, Subscriber> e : subscribers.entrySet()) {
+            Subscriber s = e.getValue();
+            long since = s.callingSince;
+            if (since != 0 && now - since > (long) MAX_FAILURES * TIMEOUT) { //Hung as long as every try together may take
+                drop(e.getKey(), s);
+                continue;
+            }
+            PushBatch batch = s.take(current, latest);
+            if (batch == null) {
+                if (s.closing && !s.inFlight) subscribers.remove(e.getKey(), s);
+                continue;
+            }
+            senders.execute(() -> deliver(e.getKey(), s, batch));
+        }
+    }
+
+    private void deliver(long key, Subscriber s, PushBatch batch) {
+        Future<?> call = null;
+        try {
+            if (s.stub == null) s.stub = Transports.get().lookup(s.ip, s.port, "Client", InifClient.class);
+            InifClient stub = s.stub;
+            s.callingSince = System.currentTimeMillis();
+            call = calls.submit(() -> {
+                try {
+                    stub.deliver(batch);
+                } finally {
+                    s.callingSince = 0;
+                }
+                return null;
+            });
+            call.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            s.failures = 0;
+        } catch (Exception e) { //Includes timeouts; a blocked read ignores cancel, so a hung call is left to return on its own
+            if (call == null) s.callingSince = 0; //Never started: lookup failed or every call thread is hung
+            s.stub = null;
+            if (++s.failures >= MAX_FAILURES) drop(key, s);
+        } finally {
+            synchronized (s) {
+                s.inFlight = false;
+            }
+        }
+    }
+
+    private void drop(long key, Subscriber s) {
+        if (subscribers.remove(key, s)) EventLog.warn(EventLog.Subsystem.CORE, "Push Client dropped", s.ip + ":" + s.port);
+    }
+
+    private static class Update {
+        final byte[] payload;
+        final long version;
+
+        Update(byte[] payload, long version) {
+            this.payload = payload;
+            this.version = version;
+        }
+    }
+
+    private static class Subscriber {
+        final String ip;
+        final int port;
+        final Set<String> topics; //Broadcast topics wanted; null for all
+        final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<>(); //Direct updates, oldest first
+        long seen; //Broadcast version delivered up to
+        int dropped, failures;
+        volatile boolean closing;
+        boolean inFlight;
+        volatile long callingSince; //Start of a delivery call that has not returned, even if given up on; 0 if none
+        volatile InifClient stub; //Callback, looked up on first delivery
+
+        Subscriber(String ip, int port, String[] topics) {
+            this.ip = ip;
+            this.port = port;
+            this.topics = topics == null || topics.length == 0 ? null : new HashSet<>(Arrays.asList(topics));
+        }
+
+        synchronized void offer(String topic, byte[] payload) {
+            pending.remove(topic); //Re-insert so order follows latest write
+            pending.put(topic, payload);
+            if (pending.size() > BUFFER) {
+                Iterator<String> it = pending.keySet().iterator();
+                it.next();
+                it.remove();
+                dropped++;
+            }
+        }
+
+        synchronized PushBatch take(long current, Map<String, Update> latest) { //Batch of news, or null if idle or busy
+            if (inFlight || callingSince != 0 || (current <= seen && pending.isEmpty())) return null; //Updates merge while a call hangs
+            ArrayList<String> newTopics = new ArrayList<>();
+            ArrayList<byte[]> news = new ArrayList<>();
+            if (current > seen) {
+                for (Map.Entry<String, Update> e : latest.entrySet()) { //Later versions wait for the next window
+                    Update u = e.getValue();
+                    if (u.version > seen && u.version <= current && (topics == null || topics.contains(e.getKey()))) {
+                        newTopics.add(e.getKey());
+                        news.add(u.payload);
+                    }
+                }
+                seen = current;
+            }
+            PushBatch batch = new PushBatch(news.size() + pending.size(), dropped);
+            for (int i = 0; i < news.size(); i++) batch.add(newTopics.get(i), news.get(i));
+            for (Map.Entry<String, byte[]> p : pending.entrySet()) batch.add(p.getKey(), p.getValue());
+            pending.clear();
+            dropped = 0;
+            if (batch.size() == 0) return null;
+            inFlight = true;
+            return batch;
+        }
+    }
+}
@@ -1,14 +1,9 @@
-import java.net.DatagramSocket;
+import java.io.Serializable;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
-import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.List;
 
 /**
  * MochaRMI - Decentralized Java RMI Framework
@@ -20,11 +15,12 @@ import java.util.List;
  * a list of Shards, which become the individual
  * nodes in a decentralized lot.
  */
-public class Query {
+public class Query implements Serializable { //Travels in the Node copy registerNode returns
     private ArrayList<Shard> shardList = null; //Class-wide Shard registry
     private final String QUERYNAME;
     private final int QUERYPORT;
     private final String QUERYIP;
+    private static volatile String hostIP = null;  //Cached address of host platform
 
     /**
      * Constructor - Query Service
@@ -47,9 +43,8 @@ public class Query {
     public Query(String queryName, ArrayList<Shard> shards, String queryIP, int queryPort) {
         QUERYPORT = queryPort;
         QUERYNAME = queryName;
-        QUERYIP = getHostIP();
-        shards.add(new CoreShard());     //Add required Core Shard to List
-        this.shardList = shards;         //Add all supplied Shards to Query's pool
+        QUERYIP = queryIP;
+        this.shardList = shards;         //Core Shard already added by Query Service
     }
 
     /**
@@ -59,18 +54,29 @@ public class Query {
      * Starts IOConsole for Query Object
      */
     public boolean startQuery() {
+        if (!startServices()) return false;
+        new QueryIOConsole(QUERYIP, QUERYPORT).run();    //Start Admin Query IO Console
+        return true;
+    }
+
+    /**
+     * startServices
+     * Reserves the Query port and starts Query Server and Client
+     * without the console; used directly by benchmark harnesses
+     */
+    boolean startServices() {
         try {
-            LocateRegistry.createRegistry(QUERYPORT);
+            if (!Transports.get().listen(QUERYPORT)) throw new IllegalStateException("Port taken");
         } catch (Exception e) {             //Catch if unable to create registry
             System.err.println("Unable to create Query Registry");
             return false;
         }
-        startQueryServer();
-        startQueryClient();
+        RoutingTable routes = new RoutingTable(); //Shared in memory; not part of Query's serialized metadata
+        startQueryServer(routes);
+        startQueryClient(routes);
         System.out.println("Query Server Created!");
         System.out.println("IP Address: " + QUERYIP);
         System.out.println("Port: " + QUERYPORT);
-        new QueryIOConsole(QUERYIP, QUERYPORT).run();    //Start Admin Query IO Console
         return true;
     }
 
@@ -79,11 +85,10 @@ public class Query {
      * Initializes Query side Node communication
      * Creates instance of server and adds/binds to registry
      */
-    private void startQueryServer() {
+    private void startQueryServer(RoutingTable routes) {
         try {
-            QueryServer obj = new QueryServer(getQueryMeta());                                  //Create new instance of content for RMI to use
-            Registry registry = LocateRegistry.getRegistry(QUERYPORT);                          //Denote port to get registry from; create Registry
-            registry.bind("QueryServer", UnicastRemoteObject.exportObject(obj, 0)); //Bind stub to registry
+            QueryServer obj = new QueryServer(getQueryMeta(), routes);                          //Create new instance of content for RMI to use
+            Transports.get().export("QueryServer", obj, QUERYPORT);                             //Serve on Query endpoint
 
             System.out.println("Query Server \"QueryServer\" Started!");
         } catch (Exception e) {
@@ -98,11 +103,11 @@ public class Query {
      * Initializes Query side Client communication
      * Creates instance of server and adds/binds to registry
      */
-    private void startQueryClient() {
+    private void startQueryClient(RoutingTable routes) {
         try {
-            QueryClient obj = new QueryClient();                                                // Create new instance of content for RMI to use
-            Registry registry = LocateRegistry.getRegistry(QUERYPORT);                          //Denote port to get registry from; create Registry
-            registry.bind("QueryClient", UnicastRemoteObject.exportObject(obj, 0)); //Bind stub to registry
+            QueryClient obj = new QueryClient(getBalanceMode(), routes);                        // Create new instance of content for RMI to use
+            Transports.get().export("QueryClient", obj, QUERYPORT);                             //Serve on Query endpoint
+            obj.startRebalance();
 
             System.out.println("Query Server \"QueryClient\" Started!");
         } catch (Exception e) {
@@ -115,41 +120,52 @@ public class Query {
     /**
      * getHostIP
      * Determine the IP address of the host platform
-     * OS Dependent method of retrieval
+     * Resolved once, from "mocha.host" if set, otherwise
+     * from the first site-local IPv4 interface; then cached
      */
     static String getHostIP() {
+        String ip = hostIP;
+        if (ip == null) {
+            synchronized (Query.class) {
+                if (hostIP == null) hostIP = resolveHostIP();
+                ip = hostIP;
+            }
+        }
+        return ip;
+    }
+
+    private static String resolveHostIP() {
+        String configured = System.getProperty("mocha.host");
+        if (configured != null && !configured.isEmpty()) return configured;           //Configured bind address wins
         try {
-            String os = System.getProperty("os.name").toLowerCase().substring(0, 3);             //Capture OS name, first 3 letters
-
-            switch (os) {
-                case "win":                                                                     //Denotes Windows OS
-                    return Inet4Address.getLocalHost().getHostAddress();
-                case "mac":                                                                     //Denotes Mac OS
-                    List<String> privateIP = Arrays.asList("10", "172", "192");
-                    String ip;
-                    Enumeration<NetworkInterface> ni = NetworkInterface.getNetworkInterfaces(); //Get all available network interfaces
-                    while (ni.hasMoreElements()) {                                              //Parse through each
-                        Enumeration<InetAddress> ia = ni.nextElement().getInetAddresses();
-                        while (ia.hasMoreElements()) {
-                            ip = ia.nextElement().getHostAddress();
-                            String[] ipA = ip.split(".");
-                            if (privateIP.contains(ipA[0])) return ip;
-                        }
-                    }
-                    return "0.0.0.0";
-                case "lin":                                                                     //Denotes Linux OS
-                case "fre":                                                                     //Denotes Solaris OS
-                case "sun":                                                                     //Denotes Sun OS
-                default:
-                    try (final DatagramSocket socket = new DatagramSocket()) {
-                        socket.connect(InetAddress.getByName("8.8.8.8"), 10002);           //Get prime interface
-                        return socket.getLocalAddress().getHostAddress();
-                    }
+            String fallback = null;
+            Enumeration<NetworkInterface> ni = NetworkInterface.getNetworkInterfaces(); //Get all available network interfaces
+            while (ni.hasMoreElements()) {                                              //Parse through each
+                NetworkInterface i = ni.nextElement();
+                if (!i.isUp() || i.isLoopback()) continue;
+                Enumeration<InetAddress> ia = i.getInetAddresses();
+                while (ia.hasMoreElements()) {
+                    InetAddress addr = ia.nextElement();
+                    if (!(addr instanceof Inet4Address)) continue;
+                    if (addr.isSiteLocalAddress()) return addr.getHostAddress();      //Private address preferred
+                    if (fallback == null) fallback = addr.getHostAddress();
+                }
             }
+            if (fallback != null) return fallback;
         } catch (Exception e) {
             e.printStackTrace();
-            return "0.0.0.0";
         }
+        return InetAddress.getLoopbackAddress().getHostAddress();                       //Isolated host
+    }
+
+    /**
+     * getBalanceMode
+     * Reads Client balancing strategy from "mocha.balance"
+     * (p2c or least), defaulting to power-of-two-choices
+     */
+    private static QueryClient.BalanceMode getBalanceMode() {
+        String mode = System.getProperty("mocha.balance", "p2c");
+        return mode.equalsIgnoreCase("least") ? QueryClient.BalanceMode.LEAST_LOADED : QueryClient.BalanceMode.POWER_OF_TWO;
     }
 
     private Query getQueryMeta() {
@@ -1,8 +1,11 @@
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Created 12/7/2016
@@ -14,40 +17,184 @@ import java.util.List;
  * incoming Client connections. It controls if
  * Arrays can accept clients, and directs clients
  * to valid Arrays
- */Array(Client c) throws RemoteException {
-        List<Integer> counts = new ArrayList<>(); //Count of current clients by Array
-        for (Array a : arrayList) {
-            counts.add(balance.get(a).size());
+ */
+public class QueryClient implements InifQueryClient {
+    private static final float LATENCY_TARGET = 50f; //p99 (ms) at which an Array's weight doubles
+    private static final float SESSION_RATE = 10f; //Requests per second weighed as one more session
+    private static final int REBALANCE_RATE = 5000; //ms between rebalance passes
+    private static final int MIGRATION_RATE = Integer.getInteger("mocha.migrate.rate", 50); //Clients moved per second, at most
+    private static final float IMBALANCE = 0.2f; //Fraction of sessions two Arrays may differ by before moving Clients
+
+    public enum BalanceMode {
+        POWER_OF_TWO, //Sample two Arrays, take the lighter one
+        LEAST_LOADED  //Scan every Array, take the lightest
+    }
+
+    private final RoutingTable routes; //Arrays open to Clients, published by QueryServer
+    private volatile BalanceMode mode;
+    private int migrationBudget = 0; //Clients that may still be moved this pass
+    private Timer timer;
+
+    public QueryClient() {
+        this(BalanceMode.POWER_OF_TWO);
+    }
+
+    public QueryClient(BalanceMode mode) {
+        this(mode, new RoutingTable());
+    }
+
+    public QueryClient(BalanceMode mode, RoutingTable routes) {
+        this.mode = mode;
+        this.routes = routes;
+    }
+
+    /**
+     * assignToArray
+     * Picks from one snapshot of the open Arrays, taking no
+     * lock. An untraced Client may be sampled here; the Array
+     * returned then carries the trace on to registerClient
+     */
+    public Array assignToArray(Client c) throws RemoteException {
+        RoutingTable.Snapshot snap = routes.get();
+        if (snap.open.length == 0) throw new RemoteException("No Arrays open to Clients!");
+        Tracer.Span span = c.getTrace() == null ? Tracer.startRoot("assignToArray") : Tracer.start("assignToArray", c.getTrace());
+        RoutingTable.Route route = mode == BalanceMode.LEAST_LOADED ? leastLoaded(snap.open) : powerOfTwo(snap.open);
+        route.pending.incrementAndGet(); //Count until the Core's next report includes it
+        EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CLIENT, "Client Connected", c.getClientIP(), null, route.array.getArrayID(), -1);
+        span.end();
+        if (span.isSampled()) c.setTrace(span.context()); //Callers in this JVM keep the Client they passed
+        return route.array.forClient(span.context()); //Never the formation trace of the shared Array
+    }
+
+    private static RoutingTable.Route leastLoaded(RoutingTable.Route[] open) { //Strict least-loaded selection
+        RoutingTable.Route best = null;
+        double min = Double.MAX_VALUE;
+        for (RoutingTable.Route r : open) {
+            double score = score(r);
+            if (score < min) {
+                min = score;
+                best = r;
+            }
         }
-        int min = Integer.MAX_VALUE;
-        for (int i : counts) {
-            public class QueryClient implements InifQueryClient {
-                private List<Array> arrayList = new ArrayList<>();
-                private HashMap<Array, List<Client>> balance = new HashMap<>(); //Load-balancing Arrays
-
-                public Array assignTo
-            if (min > i) min = i;
+        return best;
+    }
+
+    private static RoutingTable.Route powerOfTwo(RoutingTable.Route[] open) { //Power-of-two-choices selection
+        int size = open.length;
+        if (size == 1) return open[0];
+        ThreadLocalRandom r = ThreadLocalRandom.current();
+        int i = r.nextInt(size);
+        int j = r.nextInt(size - 1);
+        if (j >= i) j++; //Two distinct Arrays
+        return score(open[i]) <= score(open[j]) ? open[i] : open[j];
+    }
+
+    private static int sessions(RoutingTable.Route r) { //Best estimate of live sessions
+        LoadReport report = r.report;
+        return Math.max((report == null ? 0 : report.getSessions()) + r.pending.get() + r.migrated.get(), 0);
+    }
+
+    private static double score(RoutingTable.Route r) { //Weighted load; lower is better
+        LoadReport report = r.report;
+        if (report == null) return sessions(r) + 1;
+        return (sessions(r) + 1 + report.getRequestRate() / SESSION_RATE) //Few busy Clients can outweigh many idle ones
+                * (1 + report.getCpu())
+                * (1 + report.getP99Millis() / LATENCY_TARGET);
+    }
+
+    public void reportLoad(LoadReport report) { //Live load pushed by a Core
+        RoutingTable.Route r = routes.get().route(report.getArrayID());
+        if (r == null) return; //Array closed since report was sent
+        long covered = report.getRegistrations() - r.registered.getAndSet(report.getRegistrations()); //Registrations new in this report
+        r.report = report;
+        r.migrated.set(0); //Sessions now counted where they live
+        r.pending.updateAndGet(p -> p > 0 ? (int) Math.max(0, p - covered) : 0); //Later assignments stay pending; departures are now reported
+        if (report.getSessions() == 0) routes.closeDrained(report.getArrayID()); //Drain finished; stop tracking it
+    }
+
+    public void openArray(Array data) { //Open Array to Clients; QueryServer publishes directly
+        routes.open(data);
+    }
+
+    public void closeArray(Array data) { //Close Array from client connections; its Clients are reassigned on return
+        routes.close(data.getArrayID());
+    }
+
+    public void drainClients(UUID arrayID) { //Stop assigning to Array and move its Clients away
+        routes.drain(arrayID);
+    }
+
+    void startRebalance() { //Periodically move Clients between Arrays
+        timer = new Timer(true);
+        timer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                rebalance();
+            }
+        }, REBALANCE_RATE, REBALANCE_RATE);
+    }
+
+    /**
+     * rebalance
+     * Plans moves from one snapshot, first emptying draining
+     * Arrays, then evening out the heaviest and lightest.
+     * Moves are capped per pass so migration never spikes load.
+     */
+    private void rebalance() {
+        for (Move move : plan(routes.get())) {
+            Array src = move.source.array, tgt = move.target.array;
+            try {
+                NodeDescriptor srcCore = src.getCore(), tgtCore = tgt.getCore();
+                InifCore stub = Transports.get().lookup(srcCore.getNodeIP(), srcCore.getNodePort(), "Core", InifCore.class);
+                int moved = stub.migrateClients(move.count, tgtCore.getNodeIP(), tgtCore.getNodePort());
+                move.source.migrated.addAndGet(-moved); //Reflect move until each Core reports again
+                move.target.migrated.addAndGet(moved);
+                EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CLIENT, "Clients Migrated", moved + " to " + tgt.getArrayID(), null, src.getArrayID(), -1);
+            } catch (Exception e) {
+                EventLog.warn(EventLog.Subsystem.CLIENT, "Client migration failed", e.toString());
+            }
         }
-        Array server = arrayList.get(counts.indexOf(min));
-        List<Client> playerList = balance.get(server);
-        playerList.add(c);
-        balance.replace(server, playerList);
-        System.out.println("Client Connected (" + c.getClientIP() + ")! Directed to (" + server.getShardMap().get("Core").getNodeIP() + ")");
-        return server;
-    }
-
-    public void openArray(Array data) { //Open Array to Clients
-        arrayList.add(data);
-        balance.put(data, new ArrayList<>());
-        try {
-            System.out.println("Array Opened to Clients! (" + data.getShardMap().get("Core").getNodeIP() + ")");
-        } catch (RemoteException e) {
-            System.out.println("Array Opened to Clients!");
+    }
+
+    List<Move> plan(RoutingTable.Snapshot snap) { //Moves for one pass; nothing is sent
+        List<Move> plan = new ArrayList<>();
+        migrationBudget = MIGRATION_RATE * REBALANCE_RATE / 1000; //Unused budget does not carry over
+        if (snap.open.length == 0) return plan;
+        for (RoutingTable.Route src : snap.draining) {
+            int n = Math.min(sessions(src), migrationBudget);
+            if (n > 0) plan.add(planMove(src, leastLoaded(snap.open), n));
+        }
+        if (migrationBudget > 0 && snap.open.length > 1) {
+            RoutingTable.Route heavy = snap.open[0], light = snap.open[0];
+            for (RoutingTable.Route r : snap.open) {
+                if (sessions(r) > sessions(heavy)) heavy = r;
+                if (sessions(r) < sessions(light)) light = r;
+            }
+            int diff = sessions(heavy) - sessions(light);
+            if (diff > Math.max(1, sessions(heavy) * IMBALANCE)) {
+                plan.add(planMove(heavy, light, Math.min(diff / 2, migrationBudget)));
+            }
         }
+        return plan;
+    }
+
+    private Move planMove(RoutingTable.Route src, RoutingTable.Route tgt, int count) {
+        migrationBudget -= count;
+        return new Move(src, tgt, count);
     }
 
-    public void closeArray(Array data) {//Close Array from client connections
-        arrayList.remove(data);
-        System.out.println("Array Closed to Clients!");
+    public void setBalanceMode(BalanceMode mode) {
+        this.mode = mode;
+    }
+
+    static class Move { //Planned migration of Clients between two Arrays
+        final RoutingTable.Route source, target;
+        final int count;
+
+        Move(RoutingTable.Route source, RoutingTable.Route target, int count) {
+            this.source = source;
+            this.target = target;
+            this.count = count;
+        }
     }
 }
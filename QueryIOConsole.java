@@ -1,9 +1,8 @@
 
 
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.Objects;
 import java.util.Scanner;
+import java.util.UUID;
 import java.util.regex.Pattern;
 
 /**
@@ -37,8 +36,7 @@ public class QueryIOConsole extends Thread {
     public void run() {
         InifQueryServer stub;
         try {
-            Registry registry = LocateRegistry.getRegistry(queryIP, queryPort); //IP Address of RMI Server, nodePort of RMIRegistry
-            stub = (InifQueryServer) registry.lookup("QueryServer"); //Name of RMI Server in registry
+            stub = Transports.get().lookup(queryIP, queryPort, "QueryServer", InifQueryServer.class);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -76,11 +74,52 @@ public class QueryIOConsole extends Thread {
                     case "prt":
                         if (result[1].equals("-un")) {
                             stub.printUnassignedNodes();
+                        } else if (result[1].equals("-ar")) {
+                            stub.printArrays();
+                        } else if (result[1].equals("-hl")) {
+                            stub.printHealth();
                         } else wrong = true;
 
                         if (wrong) {
                             System.out.println("Invalid Arguments! Usage: Stop <args> <AltQIP>");
                             System.out.println("Args:\n un : Print all Unassigned Nodes");
+                            System.out.println(" ar : Print all Arrays and their Nodes");
+                            System.out.println(" hl : Print health of every Array and the cluster");
+                        }
+                        break;
+                    case "arr":
+                        if (result.length == 4 && result[1].equals("-add")) {
+                            int added = stub.growArray(UUID.fromString(result[2]), result[3], 1);
+                            System.out.println("Nodes Added: " + added);
+                        } else if (result.length == 5 && result[1].equals("-add")) {
+                            int added = stub.growArray(UUID.fromString(result[2]), result[3], Integer.parseInt(result[4]));
+                            System.out.println("Nodes Added: " + added);
+                        } else if (result.length == 4 && result[1].equals("-drain")) {
+                            boolean drained = stub.drainArray(UUID.fromString(result[2]), UUID.fromString(result[3]));
+                            System.out.println(drained ? "Node Draining!" : "Unable to drain Node!");
+                        } else wrong = true;
+
+                        if (wrong) {
+                            System.out.println("Invalid Arguments! Usage: arr <args> <ArrayID> ...");
+                            System.out.println("Args:\n -add <ArrayID> <Role> [Count] : Add unassigned Nodes to Array");
+                            System.out.println(" -drain <ArrayID> <NodeID> : Drain Node from Array back to pool");
+                        }
+                        break;
+                    case "trc":
+                        if (result.length == 2) {
+                            if (Tracer.exportJson(result[1])) System.out.println("Traces Exported! Path: " + result[1]);
+                        } else {
+                            System.out.println("Invalid Arguments! Usage: trc <File>");
+                        }
+                        break;
+                    case "cli":
+                        if (result.length == 3 && result[1].equals("-drain")) {
+                            InifQueryClient clientStub = Transports.get().lookup(queryIP, queryPort, "QueryClient", InifQueryClient.class);
+                            clientStub.drainClients(UUID.fromString(result[2]));
+                            System.out.println("Array Draining Clients!");
+                        } else {
+                            System.out.println("Invalid Arguments! Usage: cli <args> <ArrayID>");
+                            System.out.println("Args:\n -drain <ArrayID> : Migrate all Clients off Array");
                         }
                         break;
                     default:
@@ -1,10 +1,14 @@
 
 
-import java.net.Inet4Address;
+import java.io.IOException;
 import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * MochaRMI - Decentralized Java RMI Framework
@@ -17,14 +21,43 @@ import java.util.*;
  * dispatches Nodes,
  */
 public class QueryServer implements InifQueryServer {
-    private HashMap<UUID, Node> nodeList = new HashMap<>();                 //List of all unorganized Nodes
-    private ArrayList<Array> arrayList = new ArrayList<>();                 //List of all current Arrays
+    private DescriptorIndex nodeList = new DescriptorIndex();               //List of all unorganized Nodes
+    private DescriptorIndex assigned = new DescriptorIndex();               //Nodes checked out to Arrays, kept for recycle
+    private final List<Array> arrayList = new CopyOnWriteArrayList<>();     //List of all current Arrays; written by ArrayCreates and RMI threads
     private final ArrayList<Shard> SHARDS;                                  //List of Shards provided by Query
     private final Query QUERY;                                              //Query Metadata
+    private final String[] ROLES;                                           //Role of each Shard; role IDs index into it
+    private final Map<UUID, ArrayStartup> startups = new ConcurrentHashMap<>(); //Arrays waiting for Shards to be ready
+    private static final int STARTUP_TIMEOUT = 60000;                      //ms an Array may take to become ready
+    private static final int SLOW_SHARD = 5000;                            //ms after which a Shard startup is flagged slow
+    private final Map<UUID, HealthDigest> health = new ConcurrentHashMap<>(); //Latest digest per Array, pushed by its Core
+    private final Map<UUID, Long> healthSeen = new ConcurrentHashMap<>();   //Local time each Array's digest arrived
+    private final Semaphore registrations = new Semaphore(Integer.getInteger("mocha.register.inflight", 32)); //Registrations admitted at once
+    private static final int ADMIT_WAIT = Integer.getInteger("mocha.register.wait", 2000); //ms a registration may queue before it is turned away
+    private final AtomicBoolean formationQueued = new AtomicBoolean(); //A formation pass is pending; later triggers join it
+    private static final int MAX_FORMING = Integer.getInteger("mocha.formation.max", 16); //ArrayCreates allowed in flight
+    private final Semaphore forming = new Semaphore(MAX_FORMING); //One permit per ArrayCreate in flight
+    private static final int FORMATION_DELAY = Integer.getInteger("mocha.formation.delay", 50); //ms triggers are gathered before a pass
+    private long poolVersion = 0;                                           //Bumped when Nodes join the pool; guarded by this
+    private long unplacedAt = -1;                                           //Pool version at which Shard needs could not be met
+    private final boolean CHECKPOINTS;                                      //Some Shard saves checkpoints
+    private final Map<String, Checkpoint> checkpoints = new ConcurrentHashMap<>(); //Saved Shard state, by lineage and role
+    private final Map<String, Set<UUID>> holders = new ConcurrentHashMap<>(); //Nodes holding a local copy of each checkpoint
+    private final Map<UUID, Long> epochs = new ConcurrentHashMap<>();       //Current Array epoch of each lineage
+    private final ArrayDeque<Array> orphans = new ArrayDeque<>();           //Dissolved Arrays whose state awaits a new Array
+    private static final long HEALTH_STALE = 3L * Integer.getInteger("mocha.digest.rate", 5000); //ms without a digest before an Array is flagged
+    private final RoutingTable ROUTES;                                      //Arrays open to Clients, shared with QueryClient
+    private final Object resizing = new Object();                           //Held while a resize copies and publishes an Array
 
-    QueryServer(Query query) {
+    QueryServer(Query query, RoutingTable routes) {
         this.QUERY = query;
+        this.ROUTES = routes;
         this.SHARDS = query.getShardList();
+        this.ROLES = new String[SHARDS.size()];
+        for (int i = 0; i < ROLES.length; i++) ROLES[i] = SHARDS.get(i).getRole();
+        boolean saves = false;
+        for (Shard s : SHARDS) saves |= s.getCheckpointSize() > 0;
+        this.CHECKPOINTS = saves;
     }
 
     /**
@@ -33,59 +66,206 @@ public class QueryServer implements InifQueryServer {
      * Updates registry if Node was present previously
      * Returns Query metadata back to the Node.
      */
-     public synchronized Node registerNode(Node n) throws RemoteException {                   //Register new Node or Register free Node, called by Node
-        UUID nodeID = n.getID();
-        if (nodeID == null || !nodeList.keySet().contains(nodeID)) {
-            nodeID = UUID.randomUUID();
-            n = new Node(QUERY, nodeID);
-            nodeList.put(nodeID,n);
-        } else {
-            nodeList.replace(nodeID, n);
+     public Node registerNode(Node n) throws RemoteException {                   //Register new Node or Register free Node, called by Node
+        admit();
+        try {
+            UUID nodeID = n.getID();
+            long start = System.nanoTime();
+            Tracer.Span span = Tracer.start("registerNode", n.getTrace());
+            synchronized (this) {
+                NodeDescriptor d = addNode(new NodeDescriptor(nodeID, n.getNodeIP(), n.getNodePort(), n.getCores(), n.getHeapMB(),
+                        n.getRttMicros(), n.getResumeToken()));
+                nodeID = d.getID();
+                n = new Node(QUERY, null, nodeID, d.getNodeIP(), d.getNodePort(), null); //Reply only; Query keeps the descriptor
+            }
+            formArrays(span.context()); //If there is enough Shards to complete an array, create a new one.
+            EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.QUERY, "Node Registered", n.getNodeIP(), nodeID, null,
+                    (System.nanoTime() - start) / 1000);
+            FaultHooks.event("register", n.getNodePort());
+            span.end();
+            return n;         //Return Query metadata to Node
+        } finally {
+            registrations.release();
         }
-        if (nodeList.size() >= SHARDS.size()) {                                                     //If there is enough Shards to complete an array, create a new one.
-            System.out.println("Creating new Array!");
-            new Thread(new ArrayCreate()).start();
+    }
+
+    /**
+     * registerNodes
+     * Registers a batch of Nodes under one lock and one call,
+     * then starts formation once for every Array the pool can fill.
+     * Returns the ID assigned to each Node, in order given
+     */
+    public UUID[] registerNodes(List<NodeDescriptor> nodes, long[] resumeTokens) throws RemoteException {
+        if (resumeTokens == null || resumeTokens.length != nodes.size()) throw new RemoteException("One resume token per Node required");
+        admit();
+        try {
+            long start = System.nanoTime();
+            Tracer.Span span = Tracer.startRoot("registerNodes").tag(nodes.size() + " nodes");
+            UUID[] ids = new UUID[nodes.size()];
+            synchronized (this) {
+                for (int i = 0; i < ids.length; i++) {
+                    NodeDescriptor d = nodes.get(i);
+                    ids[i] = addNode(d.withResumeToken(resumeTokens[i])).getID();
+                    FaultHooks.event("register", d.getNodePort());
+                }
+            }
+            formArrays(span.context());
+            EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.QUERY, "Nodes Registered", ids.length + " nodes", null, null,
+                    (System.nanoTime() - start) / 1000);
+            span.end();
+            return ids;
+        } finally {
+            registrations.release();
         }
-        return n;         //Return Query metadata to Node
+    }
+
+    private void admit() throws RemoteException { //Bound registrations waiting on Query; turned away Nodes back off and retry
+        try {
+            if (registrations.tryAcquire(ADMIT_WAIT, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        EventLog.warn(EventLog.Subsystem.QUERY, "Registration turned away", "Query busy");
+        throw new RemoteException("Query busy, retry later");
+    }
+
+    private NodeDescriptor addNode(NodeDescriptor d) { //Add or refresh Node in pool; caller holds lock
+        NodeDescriptor known = d.hasID() ? nodeList.get(d.getIdHi(), d.getIdLo()) : null;
+        if (known == null && d.hasID()) known = assigned.get(d.getIdHi(), d.getIdLo());
+        if (known == null || known.getResumeToken() != d.getResumeToken()) { //Only the Node holding the token keeps a known ID
+            d = d.withID(UUID.randomUUID());
+        }
+        d = d.withRole(NodeDescriptor.NO_ROLE);
+        assigned.remove(d.getIdHi(), d.getIdLo()); //A checked-out Node that proved itself moves back to the pool
+        nodeList.put(d);
+        poolVersion++;
+        return d;
     }
 
     /**
-     * checkoutNodes
-     * Returns a collection of unused Nodes,
-     * Amount of node specified as a parameter
-     * Removes the Nodes from the master list
+     * nodeAvailable
+     * Fast recycle: a Node leaving an Array offers itself back
+     * with the token it registered with. Known Nodes return to
+     * the pool as they are; false asks the Node to fully register
      */
-    private synchronized ArrayList<Node> checkoutNodes(int numONodes) {
-        if (numONodes > this.nodeList.size()) return null;
+    public boolean nodeAvailable(UUID nodeID, long resumeToken) throws RemoteException {
+        admit();
         try {
+            long start = System.nanoTime();
+            NodeDescriptor n;
+            synchronized (this) {
+                if (nodeList.contains(nodeID)) return true; //Already in pool
+                n = assigned.get(nodeID);
+                if (n == null || n.getResumeToken() != resumeToken) return false;
+                assigned.remove(nodeID);
+                nodeList.put(n.withRole(NodeDescriptor.NO_ROLE));
+                poolVersion++;
+            }
+            EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.QUERY, "Node Recycled", n.getNodeIP(), nodeID, null,
+                    (System.nanoTime() - start) / 1000);
+            FaultHooks.event("register", n.getNodePort());
+            formArrays(null);
+            return true;
+        } finally {
+            registrations.release();
+        }
+    }
 
-            ArrayList<Node> nodeL = new ArrayList<>();
-            nodeL.addAll(((List<Node>) this.nodeList.values()).subList(0, numONodes - 1));
-            for (Node n : nodeL) {
-                nodeList.remove(n.getID());
+    /**
+     * formArrays
+     * Formation gate: triggers arriving while a pass is
+     * pending are merged into it. After a short gathering
+     * delay one pass places and checks out a Node set per
+     * Array the pool can fill, up to MAX_FORMING in flight.
+     */
+    private void formArrays(TraceContext parent) {
+        if (!formationQueued.compareAndSet(false, true)) return; //Pending pass will see these Nodes
+        new Thread(() -> {
+            try {
+                Thread.sleep(FORMATION_DELAY);
+            } catch (InterruptedException ignored) {
             }
-            return nodeL;
-        } catch (RemoteException e) {
-            e.printStackTrace();
+            formationQueued.set(false); //Triggers from here on start another pass
+            int started = 0;
+            while (forming.tryAcquire()) { //Permit taken before Nodes are, so the cap holds across passes
+                LinkedHashMap<NodeDescriptor, Shard> placement = checkoutPlacement();
+                if (placement == null) {
+                    forming.release();
+                    break;
+                }
+                new Thread(new ArrayCreate(parent, placement)).start();
+                started++;
+            }
+            if (started > 0) EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.QUERY, "Creating new Arrays", started + " arrays", null, null, -1);
+        }).start();
+    }
+
+    /**
+     * checkoutPlacement
+     * Places every Shard over the whole pool, so Core and the
+     * heavy Shards get its strongest Nodes, then checks out
+     * only the Nodes chosen. Returns null if the pool is too
+     * small, or is the same pool that could not be placed;
+     * formation then waits for another Node to join.
+     */
+    private synchronized LinkedHashMap<NodeDescriptor, Shard> checkoutPlacement() {
+        if (nodeList.size() < ShardPlacement.requiredNodes(SHARDS) || unplacedAt == poolVersion) return null;
+        UUID state = nextState();
+        LinkedHashMap<NodeDescriptor, Shard> placement = ShardPlacement.place(SHARDS, nodeList.values(),
+                (n, s) -> state != null && holds(n, state, s.getRole())); //Warm copies make restore incremental
+        if (placement == null) {
+            EventLog.warn(EventLog.Subsystem.QUERY, "Shard needs not met", nodeList.size() + " nodes in pool");
+            unplacedAt = poolVersion;
             return null;
         }
+        for (NodeDescriptor n : placement.keySet()) {
+            nodeList.remove(n.getIdHi(), n.getIdLo());
+            assigned.put(n);
+        }
+        return placement;
+    }
+
+    /**
+     * checkoutNodes
+     * Returns the strongest unused Nodes that meet a
+     * Shard's needs, amount specified as a parameter,
+     * or null if too few do. Removes them from the master list
+     */
+    private synchronized ArrayList<NodeDescriptor> checkoutNodes(Shard shard, int numONodes) {
+        ArrayList<NodeDescriptor> fit = new ArrayList<>();
+        for (NodeDescriptor n : nodeList.values()) if (ShardPlacement.meets(n, shard)) fit.add(n);
+        if (fit.size() < numONodes) return null;
+        fit.sort(Comparator.comparingDouble(ShardPlacement::capacity).reversed());
+        ArrayList<NodeDescriptor> nodeL = new ArrayList<>(fit.subList(0, numONodes));
+        for (NodeDescriptor n : nodeL) {
+            nodeList.remove(n.getIdHi(), n.getIdLo());
+            assigned.put(n);
+        }
+        return nodeL;
     }
 
     /**
      * checkinNodes
-     * Registers each Node into the Query system,
-     * Returns boolean regarding staus of registering
+     * Returns Nodes to the Query pool as one batch,
+     * starting formation once for the whole batch
      */
-    private synchronized void checkInNodes(ArrayList<Node> nodeL) {
+    private synchronized void checkInNodes(ArrayList<NodeDescriptor> nodeL) {
         if (nodeL.size() == 0) return;
 
-        for (Node n : nodeL)
-            try {
-                registerNode(n);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-                return;
-            }
+        returnNodes(nodeL);
+        poolVersion++;
+        formArrays(null);
+    }
+
+    private synchronized void dropNode(NodeDescriptor n) { //Forget a Node that failed while checked out
+        assigned.remove(n.getIdHi(), n.getIdLo());
+    }
+
+    private void returnNodes(ArrayList<NodeDescriptor> nodeL) { //Caller holds lock
+        for (NodeDescriptor n : nodeL) {
+            assigned.remove(n.getIdHi(), n.getIdLo());
+            nodeList.put(n.withRole(NodeDescriptor.NO_ROLE)); //Query's own record; Node keeps its ID
+        }
     }
 
     /**
@@ -93,17 +273,148 @@ public class QueryServer implements InifQueryServer {
      * Determine the IP
      * Creates instance of server and adds/binds to registry
      */
-    public void removeArray(Array a) throws RemoteException { //Remove Array from references
-        arrayList.remove(a);
-        try {
-            Registry registry = LocateRegistry.getRegistry(Inet4Address.getLocalHost().getHostAddress(), QUERY.getQUERYPORT()); //IP Address of RMI Server, port of RMIRegistry
-            InifQueryClient stub = (InifQueryClient) registry.lookup("QueryClient");
-            stub.closeArray(a);
-        } catch (Exception e) {
-            System.out.println("Can't open Array to clients!");
+    public void removeArray(Array a) throws RemoteException { //Remove Array from references; repeats are ignored
+        forget(a);
+    }
+
+    private boolean forget(Array a) { //False if Array was already removed
+        if (!arrayList.remove(a)) return false;
+        health.remove(a.getArrayID());
+        healthSeen.remove(a.getArrayID());
+        if (CHECKPOINTS) {
+            epochs.computeIfPresent(a.getStateID(), (k, e) -> Math.max(e, a.getEpoch() + 1)); //Members still running can no longer write
+            synchronized (orphans) {
+                orphans.add(a); //Next Array formed continues its state
+            }
         }
+        ROUTES.close(a.getArrayID());
 
         System.err.println("Array Dissolved!");
+        FaultHooks.event("dissolve", -1);
+        return true;
+    }
+
+    /**
+     * coreLost
+     * A member reports its Core unreachable. Query checks the
+     * Core itself, so one member's false timeout cannot end a
+     * serving Array. If the Core does not answer either, the
+     * Array is dissolved as its Core would have: removed, and
+     * every other member unassigned back to the pool.
+     */
+    public boolean coreLost(UUID arrayID, UUID nodeID) throws RemoteException {
+        Array a = findArray(arrayID);
+        if (a == null) return true; //Already dissolved; its members are being unassigned
+        NodeDescriptor core = a.getCore();
+        try {
+            long rtt = new HeartbeatPacer(0).beat(core, () -> //Unmeasured, so it waits the pacer's longest timeout
+                    Transports.get().lookup(core.getNodeIP(), core.getNodePort(), "AdminServer", InifNodeServer.class).ping());
+            if (rtt >= 0) {
+                EventLog.log(EventLog.Level.WARN, EventLog.Subsystem.QUERY, "Core loss not confirmed; Core answers", null, nodeID, arrayID, -1);
+                return false;
+            }
+        } catch (Exception ignored) { //Core refused the check
+        }
+        if (!forget(a)) return true; //Another member's report got here first
+        for (NodeDescriptor n : a.getNodeList()) {
+            if (n.equals(core)) continue;
+            try {
+                InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
+                stub.unassignNode("Core timeout!");
+            } catch (Exception e) {
+                System.err.println("Can't Contact Node! IP:" + n.getNodeIP() + " Port:" + n.getNodePort());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * shardReady
+     * Called by a Node once its Shard is started and ready
+     * Records startup time of the role against its Array
+     */
+    public void shardReady(UUID arrayID, String role, long startupMillis) throws RemoteException {
+        ArrayStartup startup = startups.get(arrayID);
+        if (startup == null) return; //Array already opened or abandoned
+        startup.times.merge(role, startupMillis, Math::max); //Slowest replica of each role
+        startup.latch.countDown();
+    }
+
+    public void shardFailed(UUID arrayID, String role, String reason) throws RemoteException {
+        ArrayStartup startup = startups.get(arrayID);
+        if (startup == null) return;
+        System.err.println("Shard failed to start! Role: " + role + " Reason: " + reason);
+        startup.failed = true;
+        while (startup.latch.getCount() > 0) startup.latch.countDown(); //Release waiting ArrayCreate
+    }
+
+    /**
+     * pushCheckpoint
+     * Applies pages shipped by a role's primary, unless its
+     * Array has been replaced by a later epoch of the lineage
+     */
+    public long pushCheckpoint(UUID nodeID, CheckpointDelta d) throws RemoteException {
+        Long current = epochs.get(d.getStateID());
+        if (current == null || d.getEpoch() < current) return -1; //Writer's Array no longer owns this state
+        String key = d.getStateID() + "/" + d.getRole();
+        Checkpoint cp;
+        synchronized (checkpoints) {
+            cp = checkpoints.get(key);
+            if (cp == null || cp.getSize() != d.getSize()) {
+                try {
+                    cp = new Checkpoint("query-" + d.getStateID() + "-" + d.getRole(), d.getSize());
+                } catch (IOException e) {
+                    throw new RemoteException("Unable to map checkpoint", e);
+                }
+                checkpoints.put(key, cp);
+            }
+        }
+        long version;
+        synchronized (cp) {
+            version = cp.apply(d);
+        }
+        holders.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(nodeID);
+        return version;
+    }
+
+    public CheckpointDelta fetchCheckpoint(UUID nodeID, UUID stateID, String role, long known) throws RemoteException {
+        String key = stateID + "/" + role;
+        Checkpoint cp = checkpoints.get(key);
+        if (cp == null) return null;
+        holders.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(nodeID);
+        synchronized (cp) {
+            return cp.since(stateID, role, epochs.getOrDefault(stateID, 0L), known);
+        }
+    }
+
+    private void adoptState(Array a) { //New Array continues the oldest orphaned lineage, one epoch on
+        if (!CHECKPOINTS) return;
+        Array old;
+        synchronized (orphans) {
+            old = orphans.poll();
+        }
+        if (old != null) a.setState(old.getStateID(), old.getEpoch() + 1);
+        epochs.put(a.getStateID(), a.getEpoch());
+    }
+
+    private UUID nextState() { //Lineage the next Array formed will continue, or null
+        if (!CHECKPOINTS) return null;
+        synchronized (orphans) {
+            Array old = orphans.peek();
+            return old == null ? null : old.getStateID();
+        }
+    }
+
+    private void releaseState(Array a) { //Array never opened; its lineage waits for the next one
+        if (!CHECKPOINTS) return;
+        synchronized (orphans) {
+            orphans.addFirst(a);
+        }
+    }
+
+    private boolean holds(NodeDescriptor n, UUID stateID, String role) { //Node has a local copy of role's state
+        Set<UUID> h = holders.get(stateID + "/" + role);
+        return h != null && h.contains(n.getID());
     }
 
     public void stopQuery(String altQryIP, int altQryPrt) throws RemoteException {
@@ -112,13 +423,12 @@ public class QueryServer implements InifQueryServer {
 
     public void stopQuery(String reason) throws RemoteException {
 //        System.err.println("QueryServer Server Terminated! Reason: " + reason);
-        ArrayList<Array> aList = arrayList;
+        List<Array> aList = arrayList;
         for (Array a : aList) {
-            ArrayList<Node> nList = a.getNodeList();
-            for (Node n : nList) {
+            ArrayList<NodeDescriptor> nList = a.getNodeList();
+            for (NodeDescriptor n : nList) {
                 try {
-                    Registry registry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                    InifNode stub = (InifNode) registry.lookup("AdminNode");
+                    InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
                     try {
                         stub.terminateNode(reason);
                     } catch (Exception e) {
@@ -129,10 +439,9 @@ public class QueryServer implements InifQueryServer {
                 }
             }
         }
-        for (Node n : nodeList.values()) {
+        for (NodeDescriptor n : nodeList.values()) {
             try {
-                Registry registry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                InifNode stub = (InifNode) registry.lookup("AdminNode");
+                InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
                 try {
                     stub.terminateNode(reason);
                 } catch (Exception e) {
@@ -145,10 +454,14 @@ public class QueryServer implements InifQueryServer {
         System.exit(1);
     }
 
+    public boolean ping() {
+        return true;
+    }
+
     public void printUnassignedNodes() {
         try {
             System.out.println("Nodes Unassigned: " + nodeList.size());
-            for (Node n : nodeList.values()) {
+            for (NodeDescriptor n : nodeList.values()) {
                 System.out.println("Node IP: " + n.getNodeIP() + " Port: " + n.getNodePort());
             }
         } catch (Exception e) {
@@ -161,13 +474,185 @@ public class QueryServer implements InifQueryServer {
     }
 
     public ArrayList<Array> getArrayList() throws RemoteException {
+        return new ArrayList<>(arrayList);
+    }
+
+    /**
+     * reportHealth
+     * Keeps the newest digest of each live Array;
+     * one digest per Array per period, not one per Node
+     */
+    public void reportHealth(HealthDigest digest) throws RemoteException {
+        UUID id = digest.getArrayID();
+        if (findArray(id) == null) return; //Late digest from a dissolved Array
+        HealthDigest kept = health.merge(id, digest, (old, d) -> d.getEpoch() > old.getEpoch() ? d : old);
+        if (kept != digest) return;
+        healthSeen.put(id, System.currentTimeMillis());
+        int unwell = digest.count(Membership.State.SUSPECT) + digest.count(Membership.State.DEAD);
+        if (unwell > 0) EventLog.log(EventLog.Level.WARN, EventLog.Subsystem.QUERY, "Array members unwell",
+                unwell + " of " + digest.getMemberCount(), null, id, -1);
+    }
+
+    public void queryErrState(String report) throws RemoteException {
+        EventLog.error(EventLog.Subsystem.QUERY, "Array error reported", report);
+    }
+
+    public ArrayList<HealthDigest> getHealth() throws RemoteException {
+        return new ArrayList<>(health.values());
+    }
+
+    public void printHealth() {
+        int alive = 0, suspect = 0, dead = 0, sessions = 0, worstRtt = -1, stale = 0;
+        long now = System.currentTimeMillis();
+        for (Array a : arrayList) {
+            HealthDigest d = health.get(a.getArrayID());
+            Long seen = healthSeen.get(a.getArrayID());
+            if (d == null || seen == null || now - seen > HEALTH_STALE) {
+                stale++;
+                System.out.println("Array ID: " + a.getArrayID() + " No recent digest!");
+                if (d == null) continue;
+            }
+            alive += d.count(Membership.State.ALIVE);
+            suspect += d.count(Membership.State.SUSPECT);
+            dead += d.count(Membership.State.DEAD);
+            sessions += d.getSessions();
+            worstRtt = Math.max(worstRtt, d.getRttP99());
+            System.out.println("Array ID: " + a.getArrayID() + " Epoch: " + d.getEpoch() + " Members: " + d.count(Membership.State.ALIVE)
+                    + "/" + d.getMemberCount() + " alive Sessions: " + d.getSessions() + " RTT p50/p99: " + d.getRttP50() + "/" + d.getRttP99() + "us");
+        }
+        System.out.println("Cluster: Arrays " + arrayList.size() + " (stale " + stale + ") Members alive " + alive + " suspect " + suspect
+                + " dead " + dead + " Sessions " + sessions + " Worst RTT p99 " + worstRtt + "us");
+    }
+
+    public void printArrays() {
+        try {
+            System.out.println("Arrays: " + arrayList.size());
+            for (Array a : arrayList) {
+                System.out.println("Array ID: " + a.getArrayID() + " Nodes: " + a.getNodeList().size());
+                for (NodeDescriptor n : a.getNodeList()) {
+                    System.out.println("  Node ID: " + n.getID() + " Role: " + a.getRole(n) + " IP: " + n.getNodeIP() + " Port: " + n.getNodePort());
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Can't print Arrays!");
+        }
+    }
+
+    /**
+     * growArray
+     * Pulls Nodes from the unassigned pool into a running
+     * Array as new replicas of a role, then pushes the new
+     * membership to every member. Returns Nodes added.
+     */
+    public int growArray(UUID arrayID, String role, int count) throws RemoteException {
+        Shard shard = findShard(role);
+        if (findArray(arrayID) == null || shard == null || role.equals("Core")) return 0; //Core is never replicated
+        ArrayList<NodeDescriptor> checkedOut = checkoutNodes(shard, count); //Same minimums formation enforces
+        if (checkedOut == null) return 0;
+        ArrayList<NodeDescriptor> added = new ArrayList<>(), failed = new ArrayList<>();
+        Array next;
+        synchronized (resizing) { //Readers take no lock; they keep the published Array until the grown one replaces it
+            Array a = findArray(arrayID); //Latest copy; an earlier resize may have replaced it
+            if (a == null) {
+                checkInNodes(checkedOut);
+                return 0;
+            }
+            next = a.copy();
+            for (NodeDescriptor n : checkedOut) {
+                try {
+                    Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminServer", InifNodeServer.class).ping(); //Verify Node is active
+                    NodeDescriptor member = n.withRole(next.roleID(role));
+                    next.addNode(member);
+                    added.add(member);
+                } catch (Exception e) {
+                    System.err.println("Can't Contact Node! IP:" + n.getNodeIP() + " Port:" + n.getNodePort());
+                    failed.add(n);
+                }
+            }
+            if (!publish(next)) { //Dissolved meanwhile; nothing was sent to the new members
+                checkInNodes(checkedOut);
+                return 0;
+            }
+            try {
+                pushTopology(next);
+            } catch (Exception e) { //New members are in the Array either way; start them and let the next push reach the rest
+                System.err.println("Unable to push grown Array! " + e);
+            }
+        }
+        checkInNodes(failed); //Back to the pool; formation pings them again before use
+        for (NodeDescriptor n : added) {
+            new Thread(new startServices(next, n)).start();
+        }
+        System.out.println("Array Grown! ID: " + arrayID + " Role: " + role + " Added: " + added.size());
+        return added.size();
+    }
+
+    /**
+     * drainArray
+     * Removes a Node from a running Array, pushes the
+     * new membership, then tells the Node to finish its
+     * in-flight work and return to the pool
+     */
+    public boolean drainArray(UUID arrayID, UUID nodeID) throws RemoteException {
+        NodeDescriptor n;
+        synchronized (resizing) {
+            Array a = findArray(arrayID); //Latest copy; an earlier resize may have replaced it
+            if (a == null) return false;
+            NodeDescriptor target = a.getNode(nodeID);
+            if (target == null) return false;
+            String role = a.getRole(target);
+            if (role.equals("Core") || a.getReplicas(role).size() < 2) return false; //Never drain a role's last Node
+            Array next = a.copy();
+            n = next.removeReplica(nodeID);
+            if (!publish(next)) return false; //Dissolved meanwhile
+            pushTopology(next);
+        }
+        try {
+            InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
+            stub.drainNode("Drained from Array");
+        } catch (Exception e) {
+            System.err.println("Can't Contact Node! IP:" + n.getNodeIP() + " Port:" + n.getNodePort());
+        }
+        System.out.println("Array Drained! ID: " + arrayID + " Node: " + nodeID);
+        return true;
+    }
+
+    private boolean publish(Array next) { //Put a resized copy in place of its Array everywhere it is read; false if dissolved
+        boolean[] found = new boolean[1];
+        arrayList.replaceAll(x -> {
+            if (!x.equals(next)) return x;
+            found[0] = true;
+            return next;
+        });
+        if (found[0]) ROUTES.replace(next); //Load counters carry over to the new Route
+        return found[0];
+    }
+
+    private void pushTopology(Array a) throws RemoteException { //Send current membership to every member
+        for (NodeDescriptor n : a.getNodeList()) {
+            try {
+                InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
+                stub.updateArray(a);
+            } catch (Exception e) {
+                System.err.println("Can't Contact Node! IP:" + n.getNodeIP() + " Port:" + n.getNodePort());
+            }
+        }
+    }
+
+    private Array findArray(UUID arrayID) {
+        for (Array a : arrayList) if (a.getArrayID().equals(arrayID)) return a;
         return null;
     }
 
-    public ArrayList<Node> getUnassignedNodes() throws RemoteException {
+    private Shard findShard(String role) {
+        for (Shard s : SHARDS) if (s.getRole().equals(role)) return s;
         return null;
     }
 
+    public synchronized ArrayList<NodeDescriptor> getUnassignedNodes() throws RemoteException {
+        return nodeList.values();
+    }
+
     /**
      * ArrayCreate
      * Sets up new Array from unassigned Nodes
@@ -175,67 +660,137 @@ public class QueryServer implements InifQueryServer {
      */
     private class ArrayCreate implements Runnable {                                      //Concurrent thread that creates a new Array and dispatches it from Query Server
         Array arrayMeta = new Array();
+        final TraceContext parent; //Trace of registration that triggered formation
+        final LinkedHashMap<NodeDescriptor, Shard> placement; //Placed and checked out by the formation pass
+        final ArrayList<NodeDescriptor> arNodeList;
+
+        ArrayCreate(TraceContext parent, LinkedHashMap<NodeDescriptor, Shard> placement) {
+            this.parent = parent;
+            this.placement = placement;
+            this.arNodeList = new ArrayList<>(placement.keySet());
+        }
 
         public void run() {
-            ArrayList<Node> arNodeList = checkoutNodes(SHARDS.size());
+            Tracer.Span span = Tracer.start("ArrayCreate", parent);
+            arrayMeta.setTrace(span.context()); //Carried to every Node with the Array
             try {
-                arrayMeta.setQueryIP(QUERY.getQUERYIP());
-                arrayMeta.setQueryPort(QUERY.getQUERYPORT());
-                for (Node n : arNodeList) { //One Node per Shard
-                    n.setShard(SHARDS.get(arNodeList.indexOf(n)));
-                    arrayMeta.addShardMap(n);
-                    Registry registry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                    registry.lookup("AdminServer"); //Verify Node is active
-                    arrayMeta.addNode(n); //Add node to Array
-                    for (Node o : arrayMeta.getNodeList()) {  //Transcribe arrayMeta to Nodes
-                        startServices startNodes = new startServices(arrayMeta, o);
-                        new Thread(startNodes).start();
-                    }
+                create();
+            } finally {
+                span.end();
+                forming.release();
+                formArrays(null); //Pool may have filled while this Array formed
+            }
+        }
 
-                    arrayList.add(arrayMeta);
-                    try {
-                        registry = LocateRegistry.getRegistry(QUERY.getQUERYIP(), QUERY.getQUERYPORT()); //IP Address of RMI Server, port of RMIRegistry
-                        InifQueryClient stub = (InifQueryClient) registry.lookup("QueryClient");
-                        stub.openArray(arrayMeta);
-                    } catch (Exception e) {
-                        System.out.println("Can't open Array to clients!");
-                    }
+        private void create() {
+            arrayMeta.setQueryIP(QUERY.getQUERYIP());
+            arrayMeta.setQueryPort(QUERY.getQUERYPORT());
+            arrayMeta.setRoles(ROLES);
+            adoptState(arrayMeta);
+            NodeDescriptor pinging = null;
+            try {
+                for (Map.Entry<NodeDescriptor, Shard> p : placement.entrySet()) { //One Node per Shard
+                    pinging = p.getKey();
+                    Transports.get().lookup(pinging.getNodeIP(), pinging.getNodePort(), "AdminServer", InifNodeServer.class).ping(); //Verify Node is active
+                    arrayMeta.addNode(pinging.withRole(SHARDS.indexOf(p.getValue()))); //Add node to Array under its role
                 }
             } catch (Exception e) {
                 System.err.println("Unable to create new Array! (Ping)");
-                arNodeList.remove(arNodeList.size() - 1);
+                releaseState(arrayMeta);
+                arNodeList.remove(pinging); //Dead Node stays out of the pool
+                dropNode(pinging);
                 checkInNodes(arNodeList);
                 System.out.println("Returned good Nodes to List!");
+                return;
+            }
 
+            ArrayStartup startup = new ArrayStartup(arNodeList.size());
+            startups.put(arrayMeta.getArrayID(), startup);
+            for (NodeDescriptor o : arrayMeta.getNodeList()) {  //Transcribe arrayMeta to Nodes, all in parallel
+                new Thread(new startServices(arrayMeta, o)).start();
             }
 
+            boolean ready;
+            try {
+                ready = startup.latch.await(STARTUP_TIMEOUT, TimeUnit.MILLISECONDS) && !startup.failed;
+            } catch (InterruptedException e) {
+                ready = false;
+            }
+            startups.remove(arrayMeta.getArrayID());
+            printStartupTimes(startup);
+            if (!ready) { //Never expose an Array that is not fully started
+                System.err.println("Array failed to become ready! Releasing Nodes");
+                releaseState(arrayMeta);
+                releaseNodes(arrayMeta);
+                return;
+            }
 
+            arrayList.add(arrayMeta);
+            ROUTES.open(arrayMeta);
         }
 
-        class startServices implements Runnable { //Thread that starts each Node's services concurrently
-            Array data;
-            Node n;
-
-            startServices(Array data, Node n) {
-                this.data = data;
-                this.n = n;
+        private void printStartupTimes(ArrayStartup startup) { //Per-role startup times, slow Shards flagged
+            for (Map.Entry<String, Long> t : startup.times.entrySet()) {
+                String flag = t.getValue() > SLOW_SHARD ? " (SLOW)" : "";
+                System.out.println("Shard Ready! Role: " + t.getKey() + " Startup: " + t.getValue() + "ms" + flag);
             }
+        }
 
-            @Override
-            public void run() {
+        private void releaseNodes(Array data) { //Send every Node of a failed Array back to the pool
+            for (NodeDescriptor n : data.getNodeList()) {
                 try {
-                    Registry registry = LocateRegistry.getRegistry(n.getNodeIP(), n.getNodePort()); //IP Address of RMI Server, port of RMIRegistry
-                    InifNode stub = (InifNode) registry.lookup("AdminNode"); //Name of RMI Server in registry
-                    stub.setArrayData(data);
-                    stub.setShard(n.getShard());
-                    stub.startService();
+                    InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
+                    stub.unassignNode("Array startup failed");
                 } catch (Exception e) {
-                    e.printStackTrace();
+                    System.err.println("Can't Contact Node! Port:" + n.getNodePort());
                 }
             }
         }
     }
-}
 
+    private class startServices implements Runnable { //Thread that starts each Node's services concurrently
+        Array data;
+        NodeDescriptor n;
+
+        startServices(Array data, NodeDescriptor n) {
+            this.data = data;
+            this.n = n;
+        }
+
+        @Override
+        public void run() {
+            Tracer.Span span = Tracer.start("startServices", data.getTrace()).tag(data.getRole(n));
+            TraceContext ctx = span.context();
+            try {
+                Tracer.Span step = Tracer.start("lookup", ctx);
+                InifNode stub = Transports.get().lookup(n.getNodeIP(), n.getNodePort(), "AdminNode", InifNode.class);
+                step.end();
+                step = Tracer.start("setArrayData", ctx); //Mostly serialization of Array
+                stub.setArrayData(data);
+                step.end();
+                stub.setShard(SHARDS.get(n.getRoleID()));
+                step = Tracer.start("startService", ctx);
+                stub.startService();
+                step.end();
+            } catch (Exception e) {
+                e.printStackTrace();
+                try {
+                    shardFailed(data.getArrayID(), data.getRole(n), "Unreachable: " + e);
+                } catch (RemoteException e1) {
+                    e1.printStackTrace();
+                }
+            }
+            span.end();
+        }
+    }
 
+    private static class ArrayStartup { //Readiness of one forming Array
+        final CountDownLatch latch;
+        final Map<String, Long> times = new ConcurrentHashMap<>(); //Startup time by role (ms)
+        volatile boolean failed = false;
 
+        ArrayStartup(int nodes) {
+            latch = new CountDownLatch(nodes);
+        }
+    }
+}
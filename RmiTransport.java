@@ -0,0 +1,93 @@
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * RmiTransport serves the Inif* interfaces over
+ * java.rmi and a registry per endpoint. Looked-up
+ * stubs are cached and dropped on the first failed
+ * call, so most calls skip the registry lookup.
+ */
+public class RmiTransport implements Transport {
+    private final Map<Remote, Remote> stubs = new IdentityHashMap<>(); //Exported object to its stub
+    private final Map<Remote, Integer> bindings = new IdentityHashMap<>(); //Names each object is bound under
+    private final Map<String, Remote> cache = new ConcurrentHashMap<>(); //host:port/name to stub
+
+    public boolean listen(int port) {
+        try {
+            LocateRegistry.createRegistry(port);
+            return true;
+        } catch (RemoteException e) { //Port taken
+            return false;
+        }
+    }
+
+    public synchronized void export(String name, Remote impl, int port) throws IOException {
+        Remote stub = stubs.get(impl);
+        if (stub == null) { //One export per object, however many names
+            stub = UnicastRemoteObject.exportObject(impl, 0);
+            stubs.put(impl, stub);
+        }
+        LocateRegistry.getRegistry(port).rebind(name, stub);
+        bindings.merge(impl, 1, Integer::sum);
+    }
+
+    public synchronized void unexport(String name, Remote impl, int port) {
+        try {
+            LocateRegistry.getRegistry(port).unbind(name);
+        } catch (Exception e) {
+            System.err.println("Not bound: " + name);
+        }
+        Integer left = bindings.merge(impl, -1, Integer::sum);
+        if (left != null && left <= 0) {
+            bindings.remove(impl);
+            stubs.remove(impl);
+            try {
+                UnicastRemoteObject.unexportObject(impl, true);
+            } catch (Exception e) {
+                System.err.println("Not exported: " + name);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Remote> T lookup(String host, int port, String name, Class<T> iface) throws RemoteException {
+        String key = host + ":" + port + "/" + name;
+        Remote stub = cache.get(key);
+        if (stub == null) {
+            try {
+                Registry registry = LocateRegistry.getRegistry(host, port); //IP Address of RMI Server, port of RMIRegistry
+                stub = registry.lookup(name);
+            } catch (NotBoundException e) {
+                throw new RemoteException("Not bound: " + key, e);
+            }
+            cache.put(key, stub);
+        }
+        Remote target = stub;
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) return method.invoke(target, args);
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RemoteException) cache.remove(key, target); //Stale stub; look up again next time
+                throw e.getCause();
+            }
+        };
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface}, handler);
+    }
+}
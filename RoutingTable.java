@@ -0,0 +1,157 @@
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * RoutingTable is the set of Arrays taking Clients, shared
+ * in memory by QueryServer and QueryClient of one Query.
+ * Readers take the current Snapshot, which never changes;
+ * opening, closing, draining or resizing an Array
+ * publishes a new one. An Array in the table is never
+ * changed; a resize publishes a changed copy in its place.
+ */
+public class RoutingTable {
+    private static final Route[] NONE = new Route[0];
+    private volatile Snapshot current = new Snapshot(NONE, NONE);
+
+    /**
+     * Route
+     * One Array in the table, with the live load QueryClient
+     * balances on. A resize replaces the Route with one for
+     * the new copy that shares its load counters.
+     */
+    public static final class Route {
+        public final Array array;
+        final long hi, lo; //Array ID, for lookups without a UUID
+        volatile LoadReport report; //Last report from the Array's Core
+        final AtomicInteger pending; //Clients sent that no report has counted yet
+        final AtomicInteger migrated; //Clients moved in (+) or out (-) since that report
+        final AtomicLong registered; //Core's registration count as of that report
+
+        Route(Array array) {
+            this(array, null, new AtomicInteger(), new AtomicInteger(), new AtomicLong());
+        }
+
+        Route(Array array, Route load) { //Route for a resized copy, carrying load over
+            this(array, load.report, load.pending, load.migrated, load.registered);
+        }
+
+        private Route(Array array, LoadReport report, AtomicInteger pending, AtomicInteger migrated, AtomicLong registered) {
+            this.array = array;
+            this.hi = array.getArrayID().getMostSignificantBits();
+            this.lo = array.getArrayID().getLeastSignificantBits();
+            this.report = report;
+            this.pending = pending;
+            this.migrated = migrated;
+            this.registered = registered;
+        }
+    }
+
+    public static final class Snapshot {
+        public final Route[] open; //Taking new Clients
+        public final Route[] draining; //Closed to new Clients, emptying out
+
+        Snapshot(Route[] open, Route[] draining) {
+            this.open = open;
+            this.draining = draining;
+        }
+
+        public Route find(long hi, long lo) { //Open Route with this Array ID, or null
+            for (Route r : open) if (r.hi == hi && r.lo == lo) return r;
+            return null;
+        }
+
+        public Route route(UUID arrayID) { //Open or draining Route, or null
+            return route(arrayID.getMostSignificantBits(), arrayID.getLeastSignificantBits());
+        }
+
+        public Route route(long hi, long lo) {
+            Route r = find(hi, lo);
+            if (r != null) return r;
+            for (Route d : draining) if (d.hi == hi && d.lo == lo) return d;
+            return null;
+        }
+    }
+
+    public Snapshot get() {
+        return current;
+    }
+
+    public synchronized void open(Array data) { //Open Array to Clients
+        Snapshot s = current;
+        if (s.route(data.getArrayID()) != null) return;
+        current = new Snapshot(append(s.open, new Route(data)), s.draining);
+        EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CLIENT, "Array Opened to Clients", null, null, data.getArrayID(), -1);
+        FaultHooks.event("open", -1);
+    }
+
+    public synchronized void close(UUID arrayID) { //Close Array to Clients, draining or not
+        Snapshot s = current;
+        Route r = s.route(arrayID);
+        if (r == null) return;
+        current = new Snapshot(without(s.open, r), without(s.draining, r));
+        EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CLIENT, "Array Closed to Clients", null, null, arrayID, -1);
+    }
+
+    public synchronized boolean drain(UUID arrayID) { //Stop assigning to Array; its load is still tracked
+        Snapshot s = current;
+        Route r = s.find(arrayID.getMostSignificantBits(), arrayID.getLeastSignificantBits());
+        if (r == null) return false;
+        current = new Snapshot(without(s.open, r), append(s.draining, r));
+        EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.CLIENT, "Array Draining Clients", null, null, arrayID, -1);
+        return true;
+    }
+
+    public synchronized boolean replace(Array data) { //Publish a resized copy of an open or draining Array; false if it is closed
+        Snapshot s = current;
+        Route r = s.route(data.getArrayID());
+        if (r == null) return false;
+        Route next = new Route(data, r);
+        current = new Snapshot(swap(s.open, r, next), swap(s.draining, r, next));
+        return true;
+    }
+
+    public synchronized boolean closeDrained(UUID arrayID) { //Close a draining Array once it holds no sessions; open Arrays are kept
+        Snapshot s = current;
+        long hi = arrayID.getMostSignificantBits(), lo = arrayID.getLeastSignificantBits();
+        for (Route d : s.draining) {
+            if (d.hi == hi && d.lo == lo) {
+                close(arrayID);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Route[] append(Route[] routes, Route r) {
+        Route[] out = new Route[routes.length + 1];
+        System.arraycopy(routes, 0, out, 0, routes.length);
+        out[routes.length] = r;
+        return out;
+    }
+
+    private static Route[] swap(Route[] routes, Route r, Route next) {
+        for (int i = 0; i < routes.length; i++) {
+            if (routes[i] != r) continue;
+            Route[] out = routes.clone();
+            out[i] = next;
+            return out;
+        }
+        return routes;
+    }
+
+    private static Route[] without(Route[] routes, Route r) {
+        int i = 0;
+        while (i < routes.length && routes[i] != r) i++;
+        if (i == routes.length) return routes;
+        Route[] out = new Route[routes.length - 1];
+        System.arraycopy(routes, 0, out, 0, i);
+        System.arraycopy(routes, i + 1, out, i, routes.length - i - 1);
+        return out;
+    }
+}
@@ -0,0 +1,50 @@
+
+import java.io.Serializable;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * SessionBatch carries the sessions of many Clients
+ * from one Core to another in a single call, as
+ * parallel arrays rather than a list of Client objects.
+ */
+public class SessionBatch implements Serializable {
+    private final String[] clientIPs;
+    private final int[] clientPorts;
+    private final long[] since; //Time each session began (ms)
+    private final byte[][] state; //Opaque session state, may be null per Client
+    private int size = 0;
+
+    public SessionBatch(int capacity) {
+        clientIPs = new String[capacity];
+        clientPorts = new int[capacity];
+        since = new long[capacity];
+        state = new byte[capacity][];
+    }
+
+    public void add(Client c, long sessionStart, byte[] sessionState) {
+        clientIPs[size] = c.getClientIP();
+        clientPorts[size] = c.getClientPort();
+        since[size] = sessionStart;
+        state[size] = sessionState;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Client getClient(int i) {
+        return new Client(clientIPs[i], clientPorts[i]);
+    }
+
+    public long getSince(int i) {
+        return since[i];
+    }
+
+    public byte[] getState(int i) {
+        return state[i];
+    }
+}
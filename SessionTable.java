@@ -0,0 +1,220 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * SessionTable tracks Clients off the Java heap. Each
+ * Client is one fixed-width record in a direct, or if
+ * "mocha.sessions.dir" is set, memory-mapped buffer, found
+ * by hashing its address and port with linear probing.
+ * Insert, lookup and remove are O(1); scans walk slots by
+ * index and allocate nothing. Not thread safe; owners
+ * guard it with their own lock.
+ */
+public class SessionTable {
+    //Record layout, in bytes
+    private static final int KEY = 0; //Client IPv4 << 32 | port
+    private static final int ARRAY_HI = 8, ARRAY_LO = 16; //Array the Client belongs to
+    private static final int SINCE = 24; //Session start (ms)
+    private static final int TOUCHED = 32; //Last activity (ms)
+    private static final int AUX_IP = 40, AUX_PORT = 44; //Owner-defined endpoint, such as a redirect target
+    private static final int USED = 48; //1 when slot holds a record
+    private static final int RECORD = 56;
+    private static final int MAX_SLOTS = Integer.MAX_VALUE / RECORD;
+    private static final String DIR = System.getProperty("mocha.sessions.dir"); //Map tables to files here when set
+
+    public interface Filter { //Called per live slot; must not allocate on hot paths
+        boolean test(SessionTable t, int slot);
+    }
+
+    private final String name;
+    private ByteBuffer buf;
+    private int slots, mask, size = 0;
+
+    public SessionTable(String name, int expected) {
+        this.name = name;
+        slots = Integer.highestOneBit(Math.max(expected * 2 - 1, 15)) << 1; //Power of two, at most half full
+        mask = slots - 1;
+        buf = allocate(slots, 0);
+    }
+
+    public static long key(String ip, int port) {
+        return (long) NodeDescriptor.packIPv4(ip) << 32 | (port & 0xffffffffL);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int find(long key) { //Slot of key, or -1
+        for (int i = slot(key); used(i); i = (i + 1) & mask) {
+            if (buf.getLong(i * RECORD + KEY) == key) return i;
+        }
+        return -1;
+    }
+
+    public boolean contains(long key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * put
+     * Inserts or overwrites the record for key; returns its slot
+     */
+    public int put(long key, long arrayHi, long arrayLo, long since, long touched) {
+        if ((size + 1) * 2 > slots) resize(slots * 2);
+        int i = slot(key);
+        while (used(i) && buf.getLong(i * RECORD + KEY) != key) i = (i + 1) & mask;
+        int at = i * RECORD;
+        if (!used(i)) {
+            buf.putLong(at + KEY, key);
+            buf.putInt(at + USED, 1);
+            buf.putInt(at + AUX_IP, 0);
+            buf.putInt(at + AUX_PORT, 0);
+            size++;
+        }
+        buf.putLong(at + ARRAY_HI, arrayHi);
+        buf.putLong(at + ARRAY_LO, arrayLo);
+        buf.putLong(at + SINCE, since);
+        buf.putLong(at + TOUCHED, touched);
+        return i;
+    }
+
+    public void setAux(int slot, int ip, int port) {
+        buf.putInt(slot * RECORD + AUX_IP, ip);
+        buf.putInt(slot * RECORD + AUX_PORT, port);
+    }
+
+    public boolean remove(long key) {
+        int i = find(key);
+        if (i < 0) return false;
+        removeSlot(i);
+        return true;
+    }
+
+    /**
+     * removeIf
+     * Removes every record the filter accepts; returns count.
+     * A removal may shift a later record into the current
+     * slot, so that slot is tested again before moving on.
+     */
+    public int removeIf(Filter f) {
+        int removed = 0;
+        for (int i = 0; i < slots; ) {
+            if (used(i) && f.test(this, i)) {
+                removeSlot(i);
+                removed++;
+            } else {
+                i++;
+            }
+        }
+        return removed;
+    }
+
+    public int next(int from) { //First live slot at or after from, or -1; scan with next(slot + 1)
+        for (int i = from; i < slots; i++) if (used(i)) return i;
+        return -1;
+    }
+
+    public long getKey(int slot) {
+        return buf.getLong(slot * RECORD + KEY);
+    }
+
+    public int getIP(int slot) {
+        return (int) (getKey(slot) >>> 32);
+    }
+
+    public int getPort(int slot) {
+        return (int) getKey(slot);
+    }
+
+    public long getArrayHi(int slot) {
+        return buf.getLong(slot * RECORD + ARRAY_HI);
+    }
+
+    public long getArrayLo(int slot) {
+        return buf.getLong(slot * RECORD + ARRAY_LO);
+    }
+
+    public long getSince(int slot) {
+        return buf.getLong(slot * RECORD + SINCE);
+    }
+
+    public long getTouched(int slot) {
+        return buf.getLong(slot * RECORD + TOUCHED);
+    }
+
+    public void touch(int slot, long time) {
+        buf.putLong(slot * RECORD + TOUCHED, time);
+    }
+
+    public int getAuxIP(int slot) {
+        return buf.getInt(slot * RECORD + AUX_IP);
+    }
+
+    public int getAuxPort(int slot) {
+        return buf.getInt(slot * RECORD + AUX_PORT);
+    }
+
+    private boolean used(int slot) {
+        return buf.getInt(slot * RECORD + USED) != 0;
+    }
+
+    private void removeSlot(int i) { //Shift later records of the probe run back; no tombstones
+        for (int j = (i + 1) & mask; used(j); j = (j + 1) & mask) {
+            int home = slot(buf.getLong(j * RECORD + KEY));
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                copy(j, i);
+                i = j;
+            }
+        }
+        buf.putInt(i * RECORD + USED, 0);
+        size--;
+    }
+
+    private void copy(int from, int to) {
+        for (int b = 0; b < RECORD; b += 8) buf.putLong(to * RECORD + b, buf.getLong(from * RECORD + b));
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void resize(int newSlots) {
+        if (newSlots > MAX_SLOTS) throw new IllegalStateException("Session table full: " + name);
+        ByteBuffer old = buf;
+        int oldSlots = slots;
+        buf = allocate(newSlots, 1);
+        slots = newSlots;
+        mask = newSlots - 1;
+        for (int s = 0; s < oldSlots; s++) { //Rehash records; all fields move together
+            if (old.getInt(s * RECORD + USED) == 0) continue;
+            long key = old.getLong(s * RECORD + KEY);
+            int i = slot(key);
+            while (used(i)) i = (i + 1) & mask;
+            for (int b = 0; b < RECORD; b += 8) buf.putLong(i * RECORD + b, old.getLong(s * RECORD + b));
+        }
+    }
+
+    private ByteBuffer allocate(int n, int generation) { //Zeroed buffer of n records
+        if (DIR == null) return ByteBuffer.allocateDirect(n * RECORD);
+        File f = new File(DIR, name + (generation == 0 ? "" : "-" + n) + ".sessions");
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0); //Start clean; tables are not recovered across restarts
+            raf.setLength((long) n * RECORD);
+            f.deleteOnExit();
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) n * RECORD);
+        } catch (IOException e) {
+            EventLog.warn(EventLog.Subsystem.CORE, "Unable to map session table, using direct memory", f.getPath());
+            return ByteBuffer.allocateDirect(n * RECORD);
+        }
+    }
+}
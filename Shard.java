@@ -1,5 +1,6 @@
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 
 /**
@@ -23,6 +24,64 @@ public abstract class Shard implements Serializable {
         return role;
     }
 
+    /**
+     * Lifecycle - called by the Node on its own thread, in order:
+     * initShard, startShard, then isReady until it returns true.
+     * stopShard is called when the Node leaves its Array.
+     */
+    public void initShard(Array data, Node n) { //Prepare resources before start
+    }
+
     public abstract void startShard(Array data, Node n);
 
+    public boolean isReady() { //True once Shard can serve its Array
+        return true;
+    }
+
+    public void stopShard() { //Release resources; Node is leaving Array
+    }
+
+    public void onTopologyChange(Array data) { //Array membership changed while running
+    }
+
+    public void drainShard() { //Stop taking new work; return once in-flight work is done
+    }
+
+    /**
+     * Checkpoints - optional. A Shard that reports a size
+     * has saveCheckpoint called on a timer by its role's
+     * primary; changed pages are shipped to Query. When its
+     * Array re-forms, restoreCheckpoint runs on the Node that
+     * takes over the role, between initShard and startShard.
+     */
+    public int getCheckpointSize() { //Bytes of state; 0 disables checkpoints
+        return 0;
+    }
+
+    public void saveCheckpoint(ByteBuffer state) { //Write state into region; untouched pages cost nothing
+    }
+
+    public void restoreCheckpoint(ByteBuffer state, long epoch) { //Resume from region saved in an earlier Array epoch
+    }
+
+    /**
+     * Resource needs - used when placing Shards on Nodes.
+     * Demand ranks Shards; heavier Shards get stronger Nodes.
+     */
+    public double getDemand() {
+        return 1.0;
+    }
+
+    public int getMinCores() {
+        return 1;
+    }
+
+    public long getMinHeapMB() {
+        return 0;
+    }
+
+    public int getReplicas() { //Nodes backing this role in each Array
+        return 1;
+    }
+
 }
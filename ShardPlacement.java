@@ -0,0 +1,91 @@
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * ShardPlacement decides which Node takes which
+ * Shard when an Array is formed. Shards are placed
+ * heaviest first, each onto the strongest, closest
+ * remaining Node that meets its minimum needs.
+ */
+public final class ShardPlacement {
+
+    private ShardPlacement() {
+    }
+
+    /**
+     * place
+     * Returns a Node to Shard mapping, in placement order,
+     * or null if some Shard cannot be satisfied by the Nodes given
+     */
+    public static LinkedHashMap<NodeDescriptor, Shard> place(List<Shard> shards, List<NodeDescriptor> nodes) {
+        return place(shards, nodes, (n, s) -> false);
+    }
+
+    /**
+     * place
+     * As above, but among Nodes that meet a Shard's needs,
+     * one the warm test accepts (such as a Node holding a
+     * recent checkpoint of the role) is chosen first
+     */
+    public static LinkedHashMap<NodeDescriptor, Shard> place(List<Shard> shards, List<NodeDescriptor> nodes, BiPredicate<NodeDescriptor, Shard> warm) {
+        List<Shard> byDemand = new ArrayList<>();
+        for (Shard s : shards) { //One slot per replica
+            for (int i = 0; i < s.getReplicas(); i++) byDemand.add(s);
+        }
+        byDemand.sort(Comparator.comparingDouble(Shard::getDemand).reversed());
+        List<NodeDescriptor> byCapacity = new ArrayList<>(nodes);
+        byCapacity.sort(Comparator.comparingDouble(ShardPlacement::capacity).reversed());
+
+        LinkedHashMap<NodeDescriptor, Shard> placement = new LinkedHashMap<>();
+        for (Shard s : byDemand) {
+            NodeDescriptor chosen = null;
+            for (NodeDescriptor n : byCapacity) {
+                if (meets(n, s)) {
+                    if (chosen == null) chosen = n;
+                    if (warm.test(n, s)) {
+                        chosen = n;
+                        break;
+                    }
+                }
+            }
+            if (chosen == null) {
+                EventLog.warn(EventLog.Subsystem.QUERY, "No Node meets Shard needs", s.getRole());
+                return null;
+            }
+            byCapacity.remove(chosen);
+            placement.put(chosen, s);
+            EventLog.log(EventLog.Level.INFO, EventLog.Subsystem.QUERY, "Shard Placed", s.getRole() +
+                    " cores=" + chosen.getCores() + " heap=" + chosen.getHeapMB() + "MB", chosen.getID(), null, chosen.getRttMicros());
+        }
+        return placement;
+    }
+
+    public static boolean meets(NodeDescriptor n, Shard s) { //Node has the cores and heap the Shard asks for
+        return n.getCores() >= s.getMinCores() && n.getHeapMB() >= s.getMinHeapMB();
+    }
+
+    public static int requiredNodes(List<Shard> shards) { //Nodes needed to form one Array
+        int total = 0;
+        for (Shard s : shards) total += s.getReplicas();
+        return total;
+    }
+
+    /**
+     * capacity
+     * Relative strength of a Node: cores and heap (GB),
+     * discounted by round-trip time to the Query server
+     */
+    static double capacity(NodeDescriptor n) {
+        double heapGB = Math.max(n.getHeapMB(), 1) / 1024.0;
+        double rttMillis = Math.max(n.getRttMicros(), 0) / 1000.0;
+        return Math.max(n.getCores(), 1) * Math.sqrt(heapGB) / (1 + rttMillis);
+    }
+}
@@ -0,0 +1,57 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * ShardRouter picks one replica of a role for a
+ * request. Keyed requests use a consistent hash ring,
+ * so a key keeps its replica while membership holds;
+ * unkeyed requests are spread round-robin.
+ */
+public class ShardRouter {
+    private static final int VIRTUAL_NODES = 64; //Ring points per replica, evens out key spread
+    private final List<NodeDescriptor> replicas;
+    private final TreeMap<Long, NodeDescriptor> ring = new TreeMap<>();
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ShardRouter(List<NodeDescriptor> replicas) {
+        this.replicas = new ArrayList<>(replicas);
+        for (NodeDescriptor n : this.replicas) {
+            long seed = n.hasID() ? n.getIdHi() ^ n.getIdLo() : n.getNodePort();
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(mix(seed + i * 0x9E3779B97F4A7C15L), n);
+            }
+        }
+    }
+
+    public NodeDescriptor route(Object key) { //Replica owning key on the ring
+        if (ring.isEmpty()) return null;
+        Map.Entry<Long, NodeDescriptor> e = ring.ceilingEntry(mix(key.hashCode()));
+        return e != null ? e.getValue() : ring.firstEntry().getValue();
+    }
+
+    public NodeDescriptor next() { //Next replica in round-robin order
+        if (replicas.isEmpty()) return null;
+        return replicas.get(Math.floorMod(next.getAndIncrement(), replicas.size()));
+    }
+
+    public List<NodeDescriptor> getReplicas() {
+        return replicas;
+    }
+
+    private static long mix(long h) { //64-bit finalizer, spreads nearby values across the ring
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,29 @@
+
+import java.io.Serializable;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * TraceContext identifies the span a remote call
+ * belongs to. It rides inside the Node, Array and
+ * Client objects already sent over RMI, so the
+ * Inif* interfaces keep their signatures.
+ */
+public class TraceContext implements Serializable {
+    private final long traceID, spanID;
+
+    public TraceContext(long traceID, long spanID) {
+        this.traceID = traceID;
+        this.spanID = spanID;
+    }
+
+    public long getTraceID() {
+        return traceID;
+    }
+
+    public long getSpanID() {
+        return spanID;
+    }
+}
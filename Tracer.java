@@ -0,0 +1,120 @@
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * Tracer records sampled spans of control and Client
+ * paths into an in-memory ring, one per JVM, and can
+ * export them as JSON. Unsampled calls get a shared
+ * no-op span, so tracing off costs one branch.
+ */
+public final class Tracer {
+    private static final double SAMPLE_RATE = Double.parseDouble(System.getProperty("mocha.trace.sample", "0")); //0.0 - 1.0
+    private static final int CAPACITY = Integer.getInteger("mocha.trace.size", 4096);
+    private static final Span[] ring = new Span[CAPACITY]; //Completed spans, oldest overwritten
+    private static final AtomicLong written = new AtomicLong();
+    private static final Span NOOP = new Span(null, 0, 0, 0, null);
+
+    static {
+        String file = System.getProperty("mocha.trace.file");
+        if (file != null) { //Export ring on exit
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> exportJson(file)));
+        }
+    }
+
+    private Tracer() {
+    }
+
+    /**
+     * startRoot
+     * Begins a new trace if this call is sampled
+     */
+    public static Span startRoot(String name) {
+        if (SAMPLE_RATE <= 0 || ThreadLocalRandom.current().nextDouble() >= SAMPLE_RATE) return NOOP;
+        long trace = ThreadLocalRandom.current().nextLong();
+        return new Span(name, trace, ThreadLocalRandom.current().nextLong(), 0, null);
+    }
+
+    /**
+     * start
+     * Begins a child span; unsampled when parent is null
+     */
+    public static Span start(String name, TraceContext parent) {
+        if (parent == null) return NOOP;
+        return new Span(name, parent.getTraceID(), ThreadLocalRandom.current().nextLong(), parent.getSpanID(), null);
+    }
+
+    private static void record(Span s) {
+        ring[(int) (written.getAndIncrement() % CAPACITY)] = s;
+    }
+
+    /**
+     * exportJson
+     * Writes spans currently in the ring to a file, one JSON array
+     */
+    public static synchronized boolean exportJson(String path) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(path))) {
+            out.println("[");
+            boolean first = true;
+            for (Span s : ring) {
+                if (s == null) continue;
+                if (!first) out.println(",");
+                first = false;
+                out.print("{\"trace\":\"" + Long.toHexString(s.traceID) + "\",\"span\":\"" + Long.toHexString(s.spanID)
+                        + "\",\"parent\":\"" + Long.toHexString(s.parentID) + "\",\"name\":\"" + s.name
+                        + "\",\"startMicros\":" + s.startMicros + ",\"durationMicros\":" + s.durationMicros
+                        + (s.tag == null ? "" : ",\"tag\":\"" + s.tag.replace("\"", "'") + "\"") + "}");
+            }
+            out.println();
+            out.println("]");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Unable to export traces! Path: " + path);
+            return false;
+        }
+    }
+
+    public static class Span {
+        private final String name;
+        private final long traceID, spanID, parentID;
+        private final long startMicros, startNanos;
+        private long durationMicros;
+        private String tag;
+
+        private Span(String name, long traceID, long spanID, long parentID, String tag) {
+            this.name = name;
+            this.traceID = traceID;
+            this.spanID = spanID;
+            this.parentID = parentID;
+            this.tag = tag;
+            this.startMicros = name == null ? 0 : System.currentTimeMillis() * 1000;
+            this.startNanos = name == null ? 0 : System.nanoTime();
+        }
+
+        public boolean isSampled() {
+            return this != NOOP;
+        }
+
+        public TraceContext context() { //Context to hand to child spans, null when unsampled
+            return this == NOOP ? null : new TraceContext(traceID, spanID);
+        }
+
+        public Span tag(String tag) {
+            if (this != NOOP) this.tag = tag;
+            return this;
+        }
+
+        public void end() {
+            if (this == NOOP) return;
+            durationMicros = (System.nanoTime() - startNanos) / 1000;
+            record(this);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+
+import java.io.IOException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * Transport defines how the Inif* interfaces are
+ * served and reached. Every call site goes through
+ * the Transport chosen for the deployment, so the
+ * framework runs the same over java.rmi or NIO.
+ */
+public interface Transport {
+    boolean listen(int port);
+    //Open this host's endpoint on port; false if port is taken
+
+    void export(String name, Remote impl, int port) throws IOException;
+    //Serve impl under name on the endpoint at port
+
+    void unexport(String name, Remote impl, int port);
+    //Stop serving impl under name
+
+    <T extends Remote> T lookup(String host, int port, String name, Class<T> iface) throws RemoteException;
+    //Reference to the remote object bound under name at host:port
+}
@@ -0,0 +1,86 @@
+
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * TransportBenchmark compares the Transports on
+ * loopback: each serves an InifNodeServer, and many
+ * threads call ping() through it. Prints calls/sec and
+ * latency percentiles for each.
+ * Usage: TransportBenchmark [threads] [callsPerThread] [basePort]
+ */
+public class TransportBenchmark {
+
+    private static class Pinger implements InifNodeServer {
+        public boolean ping() {
+            return true;
+        }
+
+        public MemberUpdate[] probe(MemberUpdate[] updates) {
+            return updates;
+        }
+
+        public MemberUpdate[] probeFor(UUID target, MemberUpdate[] updates) {
+            return updates;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 1290;
+        for (String name : new String[]{"rmi", "nio"}) {
+            Transport t = Transports.create(name);
+            if (!t.listen(port)) {
+                System.err.println("Port taken: " + port);
+                return;
+            }
+            t.export("AdminServer", new Pinger(), port);
+            InifNodeServer stub = t.lookup("127.0.0.1", port, "AdminServer", InifNodeServer.class);
+            run(name, stub, threads, calls / 10, false); //Warm up
+            run(name, stub, threads, calls, true);
+            port++;
+        }
+        System.exit(0);
+    }
+
+    private static void run(String name, InifNodeServer stub, int threads, int calls, boolean report) throws InterruptedException {
+        long[][] latency = new long[threads][calls];
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            long[] lat = latency[i];
+            workers[i] = new Thread(() -> {
+                for (int c = 0; c < calls; c++) {
+                    long t0 = System.nanoTime();
+                    try {
+                        stub.ping();
+                    } catch (RemoteException e) {
+                        lat[c] = -1;
+                        continue;
+                    }
+                    lat[c] = System.nanoTime() - t0;
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread w : workers) w.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (!report) return;
+
+        long[] all = Arrays.stream(latency).flatMapToLong(Arrays::stream).filter(l -> l >= 0).sorted().toArray();
+        long errors = (long) threads * calls - all.length;
+        System.out.printf("%s: %d threads, %.0f calls/sec, p50 %dus, p99 %dus, errors %d%n", name, threads,
+                all.length / seconds, pct(all, 0.50) / 1000, pct(all, 0.99) / 1000, errors);
+    }
+
+    private static long pct(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * p) - 1)];
+    }
+}
@@ -0,0 +1,24 @@
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * Transports holds the Transport used by this JVM,
+ * chosen once per deployment from "mocha.transport"
+ * (rmi or nio). All Nodes and the Query must agree.
+ */
+public final class Transports {
+    private static final Transport TRANSPORT = create(System.getProperty("mocha.transport", "rmi"));
+
+    private Transports() {
+    }
+
+    public static Transport get() {
+        return TRANSPORT;
+    }
+
+    static Transport create(String name) {
+        return name.equalsIgnoreCase("nio") ? new NioTransport() : new RmiTransport();
+    }
+}
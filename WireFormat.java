@@ -0,0 +1,128 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MochaRMI - Decentralized Java RMI Framework
+ * (c) JD Isenhart
+ * Updated October 2017
+ * <p>
+ * WireFormat encodes values for NioTransport frames.
+ * Common types get a one byte tag and a fixed encoding;
+ * anything else falls back to Java serialization. Strings
+ * are UTF-8 with an int length, so any size RMI carries fits.
+ */
+final class WireFormat {
+    private static final byte NULL = 0, INT = 1, LONG = 2, BOOL = 3, STRING = 4, UUID_T = 5, FLOAT = 6, DOUBLE = 7, BYTES = 8, OBJECT = 9;
+    private static final Map<Class<?>, Method[]> METHODS = new ConcurrentHashMap<>();
+
+    private WireFormat() {
+    }
+
+    /**
+     * methods
+     * Methods of an interface in a stable order, so both
+     * ends agree on the index sent for each call
+     */
+    static Method[] methods(Class<?> iface) {
+        return METHODS.computeIfAbsent(iface, c -> {
+            Method[] m = c.getMethods();
+            Arrays.sort(m, Comparator.comparing(Method::toGenericString));
+            return m;
+        });
+    }
+
+    static int indexOf(Class<?> iface, Method method) {
+        Method[] m = methods(iface);
+        for (int i = 0; i < m.length; i++) if (m[i].equals(method)) return i;
+        return -1;
+    }
+
+    static void write(DataOutputStream out, Object v) throws IOException {
+        if (v == null) {
+            out.writeByte(NULL);
+        } else if (v instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) v);
+        } else if (v instanceof Boolean) {
+            out.writeByte(BOOL);
+            out.writeBoolean((Boolean) v);
+        } else if (v instanceof String) {
+            byte[] s = ((String) v).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(s.length);
+            out.write(s);
+        } else if (v instanceof UUID) {
+            out.writeByte(UUID_T);
+            out.writeLong(((UUID) v).getMostSignificantBits());
+            out.writeLong(((UUID) v).getLeastSignificantBits());
+        } else if (v instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) v);
+        } else if (v instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) v);
+        } else if (v instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) v).length);
+            out.write((byte[]) v);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+                oos.writeObject(v);
+            }
+            out.writeByte(OBJECT);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    static Object read(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOL:
+                return in.readBoolean();
+            case UUID_T:
+                return new UUID(in.readLong(), in.readLong());
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case STRING:
+            case BYTES:
+            case OBJECT:
+                byte[] b = new byte[in.readInt()];
+                in.readFully(b);
+                if (tag == STRING) return new String(b, StandardCharsets.UTF_8);
+                if (tag == BYTES) return b;
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(b))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown class on wire", e);
+                }
+            default:
+                throw new IOException("Bad tag on wire: " + tag);
+        }
+    }
+}